@@ -0,0 +1,133 @@
+package bi.docxutils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.wml.CTBorder;
+import org.docx4j.wml.P;
+import org.docx4j.wml.PPr;
+import org.docx4j.wml.R;
+import org.docx4j.wml.RPr;
+import org.docx4j.wml.Tbl;
+import org.docx4j.wml.TblBorders;
+import org.docx4j.wml.TblPr;
+import org.docx4j.wml.Tc;
+import org.docx4j.wml.TcPr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/// The property descriptor functions in isolation, each invocation describing the next of the property elements
+/// found in a synthetic document, cycling through them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescrBenchmarks
+{
+  @Param({"100"})
+  public int blocks;
+
+  @Param({"2"})
+  public int nestingDepth;
+
+  private PPr[] paragraphProps;
+  private RPr[] runProps;
+  private TcPr[] cellProps;
+  private TblPr[] tableProps;
+  private CTBorder[] borders;
+  private int paragraphPropsIx, runPropsIx, cellPropsIx, tablePropsIx, bordersIx;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    WordprocessingMLPackage docx = SyntheticDocuments.create(blocks, nestingDepth);
+
+    List<PPr> pPrs = new ArrayList<>();
+    List<RPr> rPrs = new ArrayList<>();
+    List<TcPr> tcPrs = new ArrayList<>();
+    List<TblPr> tblPrs = new ArrayList<>();
+    List<CTBorder> bs = new ArrayList<>();
+
+    DocxMainPartBodyStructurePrinter.visitStructure(docx, new StructureVisitor()
+    {
+      @Override
+      public void startNode(Object node, int depth)
+      {
+        switch (node)
+        {
+          case P p when p.getPPr() != null -> pPrs.add(p.getPPr());
+          case R r when r.getRPr() != null -> rPrs.add(r.getRPr());
+          case Tc tc when tc.getTcPr() != null -> tcPrs.add(tc.getTcPr());
+          case Tbl tbl when tbl.getTblPr() != null ->
+          {
+            tblPrs.add(tbl.getTblPr());
+            if (tbl.getTblPr().getTblBorders() instanceof TblBorders tbs)
+            {
+              for (CTBorder b : new CTBorder[]{ tbs.getTop(), tbs.getBottom(), tbs.getInsideH() })
+                if (b != null) bs.add(b);
+            }
+          }
+          default -> {}
+        }
+      }
+
+      @Override
+      public void endNode(Object node, int depth) {}
+    });
+
+    paragraphProps = pPrs.toArray(PPr[]::new);
+    runProps = rPrs.toArray(RPr[]::new);
+    cellProps = tcPrs.toArray(TcPr[]::new);
+    tableProps = tblPrs.toArray(TblPr[]::new);
+    borders = bs.toArray(CTBorder[]::new);
+  }
+
+  @Benchmark
+  public String paragraphDescr()
+  {
+    paragraphPropsIx = (paragraphPropsIx + 1) % paragraphProps.length;
+    return DocxMainPartBodyStructurePrinter.paragraphDescr(paragraphProps[paragraphPropsIx]);
+  }
+
+  @Benchmark
+  public String runPropsDescr()
+  {
+    runPropsIx = (runPropsIx + 1) % runProps.length;
+    return DocxMainPartBodyStructurePrinter.runPropsDescr(runProps[runPropsIx]);
+  }
+
+  @Benchmark
+  public String tableCellPropsDescr()
+  {
+    cellPropsIx = (cellPropsIx + 1) % cellProps.length;
+    return DocxMainPartBodyStructurePrinter.tableCellPropsDescr(cellProps[cellPropsIx]);
+  }
+
+  @Benchmark
+  public String tablePropsDescr()
+  {
+    tablePropsIx = (tablePropsIx + 1) % tableProps.length;
+    return DocxMainPartBodyStructurePrinter.tablePropsDescr(tableProps[tablePropsIx]);
+  }
+
+  @Benchmark
+  public String borderDescr()
+  {
+    bordersIx = (bordersIx + 1) % borders.length;
+    return DocxMainPartBodyStructurePrinter.borderDescr(borders[bordersIx]);
+  }
+}
@@ -0,0 +1,74 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/// End to end structure output for a synthetic document, writing to a null writer so only traversal and formatting
+/// are measured. The JAXB variant works on an already loaded package, the streaming variant reads the saved docx.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StructureBenchmarks
+{
+  @Param({"1000"})
+  public int blocks;
+
+  @Param({"2"})
+  public int nestingDepth;
+
+  private WordprocessingMLPackage docx;
+  private File docxFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    docx = SyntheticDocuments.create(blocks, nestingDepth);
+    docxFile = File.createTempFile("structure-benchmark", ".docx");
+    docx.save(docxFile);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    docxFile.delete();
+  }
+
+  @Benchmark
+  public void writeStructure() throws IOException
+  {
+    try (BufferedWriter bw = new BufferedWriter(Writer.nullWriter()))
+    {
+      DocxMainPartBodyStructurePrinter.writeStructure(docx, bw);
+    }
+  }
+
+  @Benchmark
+  public void writeStructureStreaming() throws IOException
+  {
+    try (BufferedWriter bw = new BufferedWriter(Writer.nullWriter()))
+    {
+      StreamingStructurePrinter.writeStructure(docxFile, bw);
+    }
+  }
+}
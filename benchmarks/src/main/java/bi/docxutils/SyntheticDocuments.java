@@ -0,0 +1,97 @@
+package bi.docxutils;
+
+import jakarta.xml.bind.JAXBException;
+import org.docx4j.XmlUtils;
+import org.docx4j.openpackaging.exceptions.InvalidFormatException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.wml.Document;
+
+/// Generates documents resembling the reports the tools are run on: styled paragraphs with several formatted runs,
+/// bookmarks, hyperlinks and fields, with every tenth body block a bordered and shaded table whose cells nest further
+/// tables down to the given depth.
+final class SyntheticDocuments
+{
+  private static final String NAMESPACES =
+    "xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\" " +
+    "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+
+  static WordprocessingMLPackage create(int blocks, int nestingDepth) throws InvalidFormatException, JAXBException
+  {
+    StringBuilder sb = new StringBuilder("<w:document " + NAMESPACES + "><w:body>");
+
+    for (int i = 0; i < blocks; ++i)
+    {
+      if (i % 10 == 9)
+        appendTable(sb, i, nestingDepth);
+      else
+        appendParagraph(sb, i);
+    }
+
+    sb.append("<w:sectPr><w:pgSz w:w=\"12240\" w:h=\"15840\"/></w:sectPr></w:body></w:document>");
+
+    WordprocessingMLPackage pkg = WordprocessingMLPackage.createPackage();
+    pkg.getMainDocumentPart().setJaxbElement((Document)XmlUtils.unmarshalString(sb.toString()));
+    return pkg;
+  }
+
+  private static void appendParagraph(StringBuilder sb, int i)
+  {
+    sb.append("<w:p><w:pPr><w:pStyle w:val=\"").append(i % 20 == 0 ? "Heading2" : "BodyText").append("\"/>")
+      .append("<w:keepNext/><w:spacing w:before=\"120\" w:after=\"60\" w:line=\"276\" w:lineRule=\"auto\"/>")
+      .append("<w:ind w:left=\"720\" w:hanging=\"360\"/><w:jc w:val=\"both\"/>")
+      .append("<w:rPr><w:b/><w:sz w:val=\"22\"/></w:rPr></w:pPr>")
+      .append("<w:bookmarkStart w:id=\"").append(i).append("\" w:name=\"_Ref").append(i).append("\"/>")
+      .append("<w:r><w:rPr><w:rFonts w:ascii=\"Arial\" w:hAnsi=\"Arial\"/><w:b/><w:i/><w:color w:val=\"1F497D\"/>")
+      .append("<w:sz w:val=\"22\"/><w:szCs w:val=\"22\"/></w:rPr><w:t xml:space=\"preserve\">Paragraph ").append(i)
+      .append(" </w:t></w:r>")
+      .append("<w:r><w:rPr><w:rStyle w:val=\"Emphasis\"/><w:highlight w:val=\"yellow\"/></w:rPr><w:t>text</w:t>")
+      .append("<w:tab/><w:t>after tab</w:t></w:r>")
+      .append("<w:bookmarkEnd w:id=\"").append(i).append("\"/>")
+      .append("<w:hyperlink w:anchor=\"_Ref").append(Math.max(0, i - 1)).append("\">")
+      .append("<w:r><w:rPr><w:rStyle w:val=\"Hyperlink\"/></w:rPr><w:t>see above</w:t></w:r></w:hyperlink>")
+      .append("<w:r><w:fldChar w:fldCharType=\"begin\"/></w:r>")
+      .append("<w:r><w:instrText xml:space=\"preserve\"> PAGEREF _Ref").append(i).append(" \\h </w:instrText></w:r>")
+      .append("<w:r><w:fldChar w:fldCharType=\"separate\"/></w:r><w:r><w:t>1</w:t></w:r>")
+      .append("<w:r><w:fldChar w:fldCharType=\"end\"/></w:r>")
+      .append("</w:p>");
+  }
+
+  private static void appendTable(StringBuilder sb, int i, int nestingDepth)
+  {
+    sb.append("<w:tbl><w:tblPr><w:tblStyle w:val=\"TableGrid\"/><w:tblW w:w=\"5000\" w:type=\"pct\"/>")
+      .append("<w:jc w:val=\"center\"/><w:tblBorders>")
+      .append("<w:top w:val=\"single\" w:sz=\"4\" w:space=\"0\" w:color=\"auto\"/>")
+      .append("<w:bottom w:val=\"single\" w:sz=\"4\" w:space=\"0\" w:color=\"auto\"/>")
+      .append("<w:insideH w:val=\"single\" w:sz=\"4\" w:space=\"0\" w:color=\"auto\"/></w:tblBorders>")
+      .append("<w:tblLayout w:type=\"fixed\"/>")
+      .append("<w:tblCellMar><w:left w:w=\"108\" w:type=\"dxa\"/><w:right w:w=\"108\" w:type=\"dxa\"/></w:tblCellMar>")
+      .append("</w:tblPr><w:tblGrid><w:gridCol w:w=\"3000\"/><w:gridCol w:w=\"3000\"/><w:gridCol w:w=\"3000\"/>")
+      .append("</w:tblGrid>");
+
+    for (int row = 0; row < 3; ++row)
+    {
+      sb.append("<w:tr>").append(row == 0 ? "<w:trPr><w:tblHeader/></w:trPr>" : "");
+      for (int col = 0; col < 3; ++col)
+      {
+        sb.append("<w:tc><w:tcPr><w:tcW w:w=\"3000\" w:type=\"dxa\"/>")
+          .append("<w:tcBorders><w:top w:val=\"single\" w:sz=\"8\" w:color=\"808080\"/></w:tcBorders>")
+          .append("<w:shd w:val=\"clear\" w:color=\"auto\" w:fill=\"").append(row == 0 ? "D9D9D9" : "FFFFFF")
+          .append("\"/><w:vAlign w:val=\"center\"/></w:tcPr>")
+          .append("<w:p><w:pPr><w:pStyle w:val=\"TableText\"/><w:jc w:val=\"right\"/></w:pPr>")
+          .append("<w:r><w:rPr><w:rFonts w:ascii=\"Arial\" w:hAnsi=\"Arial\"/><w:sz w:val=\"18\"/></w:rPr>")
+          .append("<w:t>").append(i).append('.').append(row).append('.').append(col).append("</w:t></w:r></w:p>");
+        if (nestingDepth > 1 && row == 1 && col == 1)
+        {
+          appendTable(sb, i, nestingDepth - 1);
+          sb.append("<w:p/>");
+        }
+        sb.append("</w:tc>");
+      }
+      sb.append("</w:tr>");
+    }
+
+    sb.append("</w:tbl>");
+  }
+
+  private SyntheticDocuments() {}
+}
@@ -0,0 +1,396 @@
+package bi.docxutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.dml.Graphic;
+import org.docx4j.dml.GraphicData;
+import org.docx4j.dml.wordprocessingDrawing.Anchor;
+import org.docx4j.dml.wordprocessingDrawing.Inline;
+import org.docx4j.wml.P;
+import org.docx4j.wml.PPr;
+import org.docx4j.wml.R;
+import org.docx4j.wml.RPr;
+import org.docx4j.wml.Tbl;
+import org.docx4j.wml.Tc;
+import org.docx4j.wml.Tr;
+
+import bi.util.CommandArgs;
+
+/// Aggregate body structure metrics of a corpus of documents: node counts by type and by depth, counts of the run
+/// and paragraph properties shown in structure descriptions, table sizes and drawing and image counts.
+///
+///     collect [--max-parallel=n] <input-dir|input-list-file> <stats-file>
+///     merge <output-stats-file> <stats-file>...
+///     print <stats-file>
+///
+/// Documents are read with the streaming traversal, several at a time, each into its own counters, which are then
+/// added to the corpus totals. All counters are arrays of longs indexed by a counter's position, so counting a node
+/// allocates nothing and adding stats is adding arrays. Stats files hold the totals with their counter names, so
+/// stats of corpus shards collected separately, on other machines too, can be merged into the stats of the whole
+/// corpus. The format, with big-endian numbers and strings as by DataOutputStream.writeUTF, is
+///
+///     header      "DXC" version, document count, failed document count (longs)
+///     groups      node types, depths, run properties, paragraph properties, table rows, drawings: each a counter
+///                 count (int) followed by that many counter name and count (long) pairs
+///     tables      table count, row count, cell count, max rows per table (longs)
+///
+/// Node types are merged by name. The other groups' counters are fixed by the tools, so their names must be as
+/// expected, and stats files written by other versions are rejected rather than mismatched.
+final class CorpusStats
+{
+  private static final byte[] MAGIC = { 'D', 'X', 'C', 2 };
+
+  // Node types by index, shared by all stats in the JVM so the types' counts are indexed alike.
+  private static final List<String> typeNames = new CopyOnWriteArrayList<>();
+  private static final Map<String, Integer> typeIndexes = new ConcurrentHashMap<>();
+  private static final ClassValue<Integer> classTypeIndexes = new ClassValue<>()
+  {
+    @Override
+    protected Integer computeValue(Class<?> c)
+    {
+      return typeIndex(c.getSimpleName());
+    }
+  };
+
+  private static final List<String> DEPTH_COUNTER_NAMES = IntStream.range(0, 64).mapToObj(Integer::toString).toList();
+  // Tables by number of rows, in power of two buckets.
+  private static final List<String> TABLE_ROWS_COUNTER_NAMES =
+    IntStream.range(0, 24).mapToObj(i -> i == 0 ? "1" : (1 << i) + "-" + ((1 << i + 1) - 1)).toList();
+  private static final List<String> DRAWING_COUNTER_NAMES =
+    List.of("inline", "anchor", "inline-picture", "anchor-picture");
+
+  long documents;
+  long failedDocuments;
+  long[] nodeTypes = new long[typeNames.size()];
+  final long[] depths = new long[DEPTH_COUNTER_NAMES.size()]; // deeper nodes are counted at the last depth
+  final long[] runProps = new long[DocxMainPartBodyStructurePrinter.RUN_PROPS_COUNTER_NAMES.size()];
+  final long[] paragraphProps = new long[DocxMainPartBodyStructurePrinter.PARAGRAPH_PROPS_COUNTER_NAMES.size()];
+  final long[] tableRows = new long[TABLE_ROWS_COUNTER_NAMES.size()];
+  final long[] drawings = new long[DRAWING_COUNTER_NAMES.size()];
+  long tables;
+  long totalTableRows;
+  long totalTableCells;
+  long maxTableRows;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("max-parallel"));
+    List<String> posArgs = cmdArgs.positional();
+    String command = posArgs.isEmpty() ? "" : posArgs.get(0);
+
+    if (command.equals("collect") && posArgs.size() == 3)
+    {
+      int maxParallel = cmdArgs.value("max-parallel") instanceof String n
+        ? Integer.parseInt(n)
+        : Runtime.getRuntime().availableProcessors();
+      CorpusStats stats = collect(DocxBatchRunner.inputFiles(Path.of(posArgs.get(1))), maxParallel);
+      stats.write(Path.of(posArgs.get(2)));
+    }
+    else if (command.equals("merge") && posArgs.size() >= 3)
+    {
+      CorpusStats stats = new CorpusStats();
+      for (String statsFile : posArgs.subList(2, posArgs.size()))
+        stats.add(read(Path.of(statsFile)));
+      stats.write(Path.of(posArgs.get(1)));
+    }
+    else if (command.equals("print") && posArgs.size() == 2)
+    {
+      try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out)))
+      {
+        read(Path.of(posArgs.get(1))).writeReport(bw);
+      }
+    }
+    else
+      throw new RuntimeException(
+        "Expected arguments: collect [--max-parallel=n] <input-dir|input-list-file> <stats-file>\n" +
+        "                 or merge <output-stats-file> <stats-file>...\n" +
+        "                 or print <stats-file>"
+      );
+  }
+
+  /// The stats of the documents, traversing up to maxParallel of them at a time. Documents failing to load are
+  /// reported and counted as failed.
+  static CorpusStats collect(List<Path> docxFiles, int maxParallel) throws InterruptedException
+  {
+    long startNanos = System.nanoTime();
+    CorpusStats total = new CorpusStats();
+    Semaphore traversalPermits = new Semaphore(maxParallel);
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+    {
+      List<Future<CorpusStats>> traversals = new ArrayList<>();
+      for (Path docxFile : docxFiles)
+      {
+        traversals.add(executor.submit(() ->
+        {
+          traversalPermits.acquire();
+          try
+          {
+            CorpusStats stats = new CorpusStats();
+            DocxMainPartBodyStructurePrinter.visitStructure(docxFile.toFile(), true, stats.new Collector());
+            stats.documents = 1;
+            return stats;
+          }
+          finally { traversalPermits.release(); }
+        }));
+      }
+
+      for (int d = 0; d < docxFiles.size(); ++d)
+      {
+        try
+        {
+          total.add(traversals.get(d).get());
+        }
+        catch (ExecutionException e)
+        {
+          System.err.println("FAILED " + docxFiles.get(d) + ": " + e.getCause());
+          ++total.failedDocuments;
+        }
+      }
+    }
+
+    System.out.printf(
+      "%d documents: %d collected, %d failed; %d ms elapsed%n",
+      docxFiles.size(), total.documents, total.failedDocuments, (System.nanoTime() - startNanos) / 1_000_000
+    );
+    return total;
+  }
+
+  /// Counts the nodes visited into the stats.
+  private final class Collector implements StructureVisitor
+  {
+    // Rows and cells of the tables being visited, innermost first.
+    private final Deque<long[]> openTables = new ArrayDeque<>();
+
+    @Override
+    public void startNode(Object node, int depth)
+    {
+      int typeIndex = classTypeIndexes.get(node.getClass());
+      if (typeIndex >= nodeTypes.length)
+        nodeTypes = Arrays.copyOf(nodeTypes, typeNames.size());
+      ++nodeTypes[typeIndex];
+      ++depths[Math.min(depth, depths.length - 1)];
+
+      switch (node)
+      {
+        case P p when p.getPPr() instanceof PPr pr ->
+          DocxMainPartBodyStructurePrinter.countParagraphProps(pr, paragraphProps);
+        case R r when r.getRPr() instanceof RPr pr ->
+          DocxMainPartBodyStructurePrinter.countRunProps(pr, runProps);
+        case Tbl t -> openTables.push(new long[2]);
+        case Tr tr when openTables.peek() instanceof long[] table -> ++table[0];
+        case Tc tc when openTables.peek() instanceof long[] table -> ++table[1];
+        case Inline i -> countDrawing(0, i.getGraphic());
+        case Anchor a -> countDrawing(1, a.getGraphic());
+        default -> {}
+      }
+    }
+
+    @Override
+    public void endNode(Object node, int depth)
+    {
+      if (node instanceof Tbl && openTables.poll() instanceof long[] table)
+      {
+        ++tables;
+        ++tableRows[Math.min(63 - Long.numberOfLeadingZeros(Math.max(table[0], 1)), tableRows.length - 1)];
+        totalTableRows += table[0];
+        totalTableCells += table[1];
+        maxTableRows = Math.max(maxTableRows, table[0]);
+      }
+    }
+
+    /// Count an inline or anchored drawing, and a picture if its graphic is one.
+    private void countDrawing(int kind, @Nullable Graphic g)
+    {
+      ++drawings[kind];
+      if (g != null && g.getGraphicData() instanceof GraphicData gd && gd.getPic() != null)
+        ++drawings[kind + 2];
+    }
+  }
+
+  private static synchronized int typeIndex(String typeName)
+  {
+    @Nullable Integer index = typeIndexes.get(typeName);
+    if (index == null)
+    {
+      index = typeNames.size();
+      typeNames.add(typeName);
+      typeIndexes.put(typeName, index);
+    }
+    return index;
+  }
+
+  /// Add the other stats' counts to these.
+  void add(CorpusStats other)
+  {
+    documents += other.documents;
+    failedDocuments += other.failedDocuments;
+    if (other.nodeTypes.length > nodeTypes.length)
+      nodeTypes = Arrays.copyOf(nodeTypes, other.nodeTypes.length);
+    addCounts(other.nodeTypes, nodeTypes);
+    addCounts(other.depths, depths);
+    addCounts(other.runProps, runProps);
+    addCounts(other.paragraphProps, paragraphProps);
+    addCounts(other.tableRows, tableRows);
+    addCounts(other.drawings, drawings);
+    tables += other.tables;
+    totalTableRows += other.totalTableRows;
+    totalTableCells += other.totalTableCells;
+    maxTableRows = Math.max(maxTableRows, other.maxTableRows);
+  }
+
+  private static void addCounts(long[] from, long[] to)
+  {
+    for (int i = 0; i < from.length; ++i)
+      to[i] += from[i];
+  }
+
+  void write(Path statsFile) throws IOException
+  {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(statsFile))))
+    {
+      out.write(MAGIC);
+      out.writeLong(documents);
+      out.writeLong(failedDocuments);
+      writeCounters(out, typeNames, nodeTypes);
+      writeCounters(out, DEPTH_COUNTER_NAMES, depths);
+      writeCounters(out, DocxMainPartBodyStructurePrinter.RUN_PROPS_COUNTER_NAMES, runProps);
+      writeCounters(out, DocxMainPartBodyStructurePrinter.PARAGRAPH_PROPS_COUNTER_NAMES, paragraphProps);
+      writeCounters(out, TABLE_ROWS_COUNTER_NAMES, tableRows);
+      writeCounters(out, DRAWING_COUNTER_NAMES, drawings);
+      out.writeLong(tables);
+      out.writeLong(totalTableRows);
+      out.writeLong(totalTableCells);
+      out.writeLong(maxTableRows);
+    }
+  }
+
+  private static void writeCounters(DataOutputStream out, List<String> names, long[] counts) throws IOException
+  {
+    out.writeInt(counts.length);
+    for (int i = 0; i < counts.length; ++i)
+    {
+      out.writeUTF(names.get(i));
+      out.writeLong(counts[i]);
+    }
+  }
+
+  static CorpusStats read(Path statsFile) throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statsFile))))
+    {
+      if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC))
+        throw new IOException(statsFile + " is not a stats file of this version.");
+
+      CorpusStats stats = new CorpusStats();
+      stats.documents = in.readLong();
+      stats.failedDocuments = in.readLong();
+
+      int typeCount = in.readInt();
+      for (int i = 0; i < typeCount; ++i)
+      {
+        int typeIndex = typeIndex(in.readUTF());
+        if (typeIndex >= stats.nodeTypes.length)
+          stats.nodeTypes = Arrays.copyOf(stats.nodeTypes, typeNames.size());
+        stats.nodeTypes[typeIndex] += in.readLong();
+      }
+
+      readCounters(in, statsFile, DEPTH_COUNTER_NAMES, stats.depths);
+      readCounters(in, statsFile, DocxMainPartBodyStructurePrinter.RUN_PROPS_COUNTER_NAMES, stats.runProps);
+      readCounters(in, statsFile, DocxMainPartBodyStructurePrinter.PARAGRAPH_PROPS_COUNTER_NAMES, stats.paragraphProps);
+      readCounters(in, statsFile, TABLE_ROWS_COUNTER_NAMES, stats.tableRows);
+      readCounters(in, statsFile, DRAWING_COUNTER_NAMES, stats.drawings);
+      stats.tables = in.readLong();
+      stats.totalTableRows = in.readLong();
+      stats.totalTableCells = in.readLong();
+      stats.maxTableRows = in.readLong();
+      return stats;
+    }
+  }
+
+  private static void readCounters(DataInputStream in, Path statsFile, List<String> names, long[] counts)
+    throws IOException
+  {
+    int count = in.readInt();
+    if (count != counts.length)
+      throw new IOException(statsFile + " has " + count + " counters where " + counts.length + " were expected.");
+    for (int i = 0; i < count; ++i)
+    {
+      String name = in.readUTF();
+      if (!name.equals(names.get(i)))
+        throw new IOException(statsFile + " has counter '" + name + "' where '" + names.get(i) + "' was expected.");
+      counts[i] = in.readLong();
+    }
+  }
+
+  void writeReport(Writer w) throws IOException
+  {
+    w.write(documents + " documents, " + failedDocuments + " failed\n");
+
+    w.write("\nnodes by type\n");
+    List<Integer> typesByCount = IntStream.range(0, nodeTypes.length)
+      .boxed()
+      .filter(i -> nodeTypes[i] > 0)
+      .sorted(Comparator.comparingLong((Integer i) -> -nodeTypes[i]).thenComparing(i -> typeNames.get(i)))
+      .toList();
+    for (int i : typesByCount)
+      writeCount(w, typeNames.get(i), nodeTypes[i]);
+
+    w.write("\nnodes by depth\n");
+    writeCounts(w, DEPTH_COUNTER_NAMES, depths);
+    w.write("\nrun properties\n");
+    writeCounts(w, DocxMainPartBodyStructurePrinter.RUN_PROPS_COUNTER_NAMES, runProps);
+    w.write("\nparagraph properties\n");
+    writeCounts(w, DocxMainPartBodyStructurePrinter.PARAGRAPH_PROPS_COUNTER_NAMES, paragraphProps);
+
+    w.write("\ntables\n");
+    writeCount(w, "tables", tables);
+    writeCount(w, "rows", totalTableRows);
+    writeCount(w, "cells", totalTableCells);
+    writeCount(w, "max rows", maxTableRows);
+    w.write("\ntables by rows\n");
+    writeCounts(w, TABLE_ROWS_COUNTER_NAMES, tableRows);
+
+    w.write("\ndrawings\n");
+    writeCounts(w, DRAWING_COUNTER_NAMES, drawings);
+  }
+
+  /// Write the nonzero counts in counter order.
+  private static void writeCounts(Writer w, List<String> names, long[] counts) throws IOException
+  {
+    for (int i = 0; i < counts.length; ++i)
+      if (counts[i] > 0)
+        writeCount(w, names.get(i), counts[i]);
+  }
+
+  private static void writeCount(Writer w, String name, long count) throws IOException
+  {
+    w.write(String.format("  %-28s %,14d%n", name, count));
+  }
+}
@@ -0,0 +1,52 @@
+package bi.docxutils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/// Rendered descriptions by structural key, shared by all documents processed in the JVM, with hit and miss counts.
+/// The number of entries is bounded: when full the cache is cleared, to be refilled by the formatting in current use,
+/// which is cheaper than tracking recency on every hit and suits documents that reuse a small set of formats.
+final class DescriptionCache<K extends Object>
+{
+  private final String name;
+  private final int maxEntries;
+  private final Map<K, String> descrs = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  DescriptionCache(String name, int maxEntries)
+  {
+    this.name = name;
+    this.maxEntries = maxEntries;
+  }
+
+  String get(K key, Function<K, String> render)
+  {
+    String descr = descrs.get(key);
+    if (descr != null)
+    {
+      hits.increment();
+      return descr;
+    }
+
+    misses.increment();
+    descr = render.apply(key);
+    if (descrs.size() >= maxEntries)
+      descrs.clear();
+    descrs.put(key, descr);
+    return descr;
+  }
+
+  long hits() { return hits.sum(); }
+
+  long misses() { return misses.sum(); }
+
+  String statsDescr()
+  {
+    long h = hits(), m = misses();
+    return String.format("%s descriptions: %d hits, %d misses (%.1f%% hits), %d entries",
+                         name, h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), descrs.size());
+  }
+}
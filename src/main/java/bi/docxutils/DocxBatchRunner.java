@@ -0,0 +1,210 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// Runs one of the single-document tools over a directory of docx files or a file listing docx paths one per line,
+/// writing one output file per input, so JVM and JAXB context startup are paid once for the whole batch. Each document
+/// is handled on its own virtual thread, with the number of documents being loaded and rendered at once capped to
+/// bound CPU and heap use. A summary of per-document timings and failures is printed at the end.
+final class DocxBatchRunner
+{
+  record Result(Path input, Path output, long millis, @Nullable String error) {}
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("cache", "cache-max-mb"));
+    List<String> posArgs = cmdArgs.positional();
+
+    if (posArgs.size() != 3 && posArgs.size() != 4)
+      throw new RuntimeException(
+        "Expected 3 or 4 arguments: [--cache[=dir] [--cache-max-mb=n]] <" + DocxTool.commandNames() + "> " +
+        "<input-dir|input-list-file> <output-dir> [max-parallel-documents]"
+      );
+
+    DocxTool tool = DocxTool.fromCommandName(posArgs.get(0));
+    Path input = Path.of(posArgs.get(1));
+    Path outputDir = Path.of(posArgs.get(2));
+    int maxParallel = posArgs.size() == 4 ? Integer.parseInt(posArgs.get(3)) : Runtime.getRuntime().availableProcessors();
+    @Nullable ResultCache cache = ResultCache.fromOptions(cmdArgs);
+
+    long startNanos = System.nanoTime();
+
+    List<Result> results =
+      run(tool, inputFiles(input), Files.isDirectory(input) ? input : null, outputDir, maxParallel, cache);
+
+    printSummary(results, (System.nanoTime() - startNanos) / 1_000_000, System.out);
+    if (tool == DocxTool.STRUCTURE || tool == DocxTool.STREAMING_STRUCTURE)
+      DocxMainPartBodyStructurePrinter.descriptionCacheStats().forEach(System.out::println);
+
+    if (results.stream().anyMatch(r -> r.error() != null))
+      System.exit(1);
+  }
+
+  static List<Result> run
+    (
+      DocxTool tool,
+      List<Path> docxFiles,
+      @Nullable Path inputRoot,
+      Path outputDir,
+      int maxParallel,
+      @Nullable ResultCache cache
+    )
+    throws InterruptedException
+  {
+    Semaphore processingPermits = new Semaphore(maxParallel);
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+    {
+      List<Future<Result>> futures = new ArrayList<>();
+      Set<Path> outputFiles = new HashSet<>();
+      for (Path docxFile : docxFiles)
+      {
+        Path outputFile = outputFile(docxFile, inputRoot, outputDir, tool);
+        // Only a document listed twice maps to an output file already taken, which is written once.
+        futures.add(outputFiles.add(outputFile.toAbsolutePath().normalize())
+          ? executor.submit(() -> process(tool, docxFile, outputFile, processingPermits, cache))
+          : CompletableFuture.completedFuture(
+              new Result(docxFile, outputFile, 0, "Listed more than once, output file " + outputFile + " is written once")
+            ));
+      }
+
+      List<Result> results = new ArrayList<>();
+      for (Future<Result> future : futures)
+        results.add(future.get());
+      return results;
+    }
+    catch (ExecutionException e) // process() reports its own failures in its result
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Result process
+    (
+      DocxTool tool,
+      Path docxFile,
+      Path outputFile,
+      Semaphore processingPermits,
+      @Nullable ResultCache cache
+    )
+  {
+    long startNanos = System.nanoTime();
+    try
+    {
+      Files.createDirectories(nonNull(outputFile.toAbsolutePath().getParent()));
+
+      processingPermits.acquire();
+      try (BufferedWriter bw = Files.newBufferedWriter(outputFile))
+      {
+        startNanos = System.nanoTime(); // Time spent waiting for a permit is not the document's.
+        if (cache != null)
+          cache.write(tool, docxFile.toFile(), bw);
+        else
+          tool.write(docxFile.toFile(), bw);
+      }
+      finally { processingPermits.release(); }
+
+      return new Result(docxFile, outputFile, (System.nanoTime() - startNanos) / 1_000_000, null);
+    }
+    catch (Exception e)
+    {
+      deletePartialOutput(outputFile);
+      return new Result(docxFile, outputFile, (System.nanoTime() - startNanos) / 1_000_000, e.toString());
+    }
+  }
+
+  private static void deletePartialOutput(Path outputFile)
+  {
+    try { Files.deleteIfExists(outputFile); }
+    catch (IOException e) { /* The failure being reported is the more useful one. */ }
+  }
+
+  /// The docx files under the given directory, or those listed in the given file one per line.
+  static List<Path> inputFiles(Path input) throws IOException
+  {
+    if (Files.isDirectory(input))
+    {
+      try (Stream<Path> paths = Files.walk(input))
+      {
+        return paths
+          .filter(p -> Files.isRegularFile(p) && isDocxFileName(nonNull(p.getFileName()).toString()))
+          .sorted()
+          .toList();
+      }
+    }
+    else
+    {
+      try (Stream<String> lines = Files.lines(input))
+      {
+        return lines.map(String::strip).filter(l -> !l.isEmpty() && !l.startsWith("#")).map(Path::of).toList();
+      }
+    }
+  }
+
+  private static boolean isDocxFileName(String fileName)
+  {
+    // Skip the lock files Word leaves next to open documents.
+    return fileName.toLowerCase().endsWith(".docx") && !fileName.startsWith("~$");
+  }
+
+  /// The output file for an input, mirroring the input's location under the input directory if there is one, or else
+  /// its whole absolute path, so same-named inputs from different directories don't share an output file.
+  static Path outputFile(Path docxFile, @Nullable Path inputRoot, Path outputDir, DocxTool tool)
+  {
+    Path absoluteInput = docxFile.toAbsolutePath().normalize();
+    String relativeInput = inputRoot != null
+      ? inputRoot.relativize(docxFile).toString()
+      : nonNull(absoluteInput.getRoot()).relativize(absoluteInput).toString();
+    String baseName = relativeInput.toLowerCase().endsWith(".docx")
+      ? relativeInput.substring(0, relativeInput.length() - ".docx".length())
+      : relativeInput;
+
+    return outputDir.resolve(baseName + tool.outputFileSuffix + ".txt");
+  }
+
+  static void printSummary(List<Result> results, long elapsedMillis, PrintStream out)
+  {
+    long totalMillis = 0;
+    int failures = 0;
+
+    for (Result r : results)
+    {
+      totalMillis += r.millis();
+      if (r.error() instanceof String error)
+      {
+        ++failures;
+        out.printf("FAILED %8d ms  %s: %s%n", r.millis(), r.input(), error);
+      }
+      else
+        out.printf("OK     %8d ms  %s -> %s%n", r.millis(), r.input(), r.output());
+    }
+
+    out.printf(
+      "%d documents: %d succeeded, %d failed; %d ms elapsed, %d ms total document time%n",
+      results.size(), results.size() - failures, failures, elapsedMillis, totalMillis
+    );
+  }
+
+  private DocxBatchRunner() {}
+}
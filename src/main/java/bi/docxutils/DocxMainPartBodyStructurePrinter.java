@@ -1,16 +1,33 @@
 package bi.docxutils;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.HexFormat;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import jakarta.xml.bind.JAXBElement;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.docx4j.XmlUtils;
 import org.docx4j.dml.CTPositiveSize2D;
@@ -22,16 +39,25 @@ import org.docx4j.mce.AlternateContent;
 import org.docx4j.mce.AlternateContent.Choice;
 import org.docx4j.openpackaging.exceptions.Docx4JException;
 import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.JaxbXmlPart;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.relationships.RelationshipsPart;
+import org.docx4j.relationships.Relationship;
 import org.docx4j.wml.Body;
 import org.docx4j.wml.BooleanDefaultTrue;
 import org.docx4j.wml.CTBookmark;
 import org.docx4j.wml.CTBorder;
 import org.docx4j.wml.CTCnf;
 import org.docx4j.wml.CTEm;
+import org.docx4j.wml.CTEndnotes;
+import org.docx4j.wml.CTFootnotes;
 import org.docx4j.wml.CTFramePr;
+import org.docx4j.wml.CTFtnEdn;
+import org.docx4j.wml.CTMarkupRange;
 import org.docx4j.wml.CTShd;
 import org.docx4j.wml.CTString;
 import org.docx4j.wml.CTTblCellMar;
+import org.docx4j.wml.CTTabStop;
 import org.docx4j.wml.CTTblLayoutType;
 import org.docx4j.wml.CTTblOverlap;
 import org.docx4j.wml.CTTblPPr;
@@ -41,6 +67,8 @@ import org.docx4j.wml.CTTextEffect;
 import org.docx4j.wml.CTTextboxTightWrap;
 import org.docx4j.wml.CTVerticalJc;
 import org.docx4j.wml.Color;
+import org.docx4j.wml.Comments;
+import org.docx4j.wml.Comments.Comment;
 import org.docx4j.wml.ContentAccessor;
 import org.docx4j.wml.Document;
 import org.docx4j.wml.Drawing;
@@ -54,6 +82,8 @@ import org.docx4j.wml.PPr;
 import org.docx4j.wml.PPrBase.DivId;
 import org.docx4j.wml.PPrBase.Ind;
 import org.docx4j.wml.PPrBase.NumPr;
+import org.docx4j.wml.PPrBase.NumPr.Ilvl;
+import org.docx4j.wml.PPrBase.NumPr.NumId;
 import org.docx4j.wml.PPrBase.OutlineLvl;
 import org.docx4j.wml.PPrBase.PBdr;
 import org.docx4j.wml.PPrBase.PStyle;
@@ -64,6 +94,7 @@ import org.docx4j.wml.R;
 import org.docx4j.wml.RFonts;
 import org.docx4j.wml.RPrAbstract;
 import org.docx4j.wml.RStyle;
+import org.docx4j.wml.STFtnEdn;
 import org.docx4j.wml.STThemeColor;
 import org.docx4j.wml.STVerticalJc;
 import org.docx4j.wml.SectPr;
@@ -83,56 +114,538 @@ import org.docx4j.wml.TcPrInner.VMerge;
 import org.docx4j.wml.Text;
 import org.docx4j.wml.TextDirection;
 
+import bi.util.CommandArgs;
+
 import static bi.util.Nullables.nonNull;
 
 class DocxMainPartBodyStructurePrinter
 {
   public static void main(String[] args) throws FileNotFoundException, Docx4JException, IOException
   {
-    if (args.length != 1 && args.length != 2)
-      throw new RuntimeException("Expected 1 or 2 arguments: <docx-input-file> [output-file]");
+    Set<String> options = new HashSet<>(
+      Set.of("streaming", "format", "cache", "cache-max-mb", "parallel", "stories", "effective-styles", "fold", "offset-index", "stats")
+    );
+    options.addAll(StructureSelector.OPTION_NAMES);
+    CommandArgs cmdArgs = CommandArgs.parse(args, options);
+    List<String> fileArgs = cmdArgs.positional();
+
+    if (fileArgs.size() != 1 && fileArgs.size() != 2)
+      throw new RuntimeException(
+        "Expected 1 or 2 arguments: [--streaming | [--parallel[=chunk-size]] [--stories] [--effective-styles]] " +
+        "[--format=text|jsonl|binary|plain|markdown|fingerprints] [--fold | --offset-index] " +
+        "[--cache[=dir] [--cache-max-mb=n]] " +
+        "[--body-items=n|from-to|from-] [--bookmark=name] [--type=Type,...] [--max-depth=n] [--stats] " +
+        "<docx-input-file> [output-file]"
+      );
+
+    boolean streaming = cmdArgs.has("streaming");
+    String format = cmdArgs.value("format") instanceof String f ? f : "text";
+    @Nullable ResultCache cache = ResultCache.fromOptions(cmdArgs);
+    StructureSelector selector = StructureSelector.fromOptions(cmdArgs);
+    File docxFile = new File(fileArgs.get(0));
+    DocxTool tool = streaming ? DocxTool.STREAMING_STRUCTURE : DocxTool.STRUCTURE;
+    ToolStats stats = ToolStats.fromOptions(tool.commandName, docxFile, cmdArgs);
+    int parallelChunkSize = !cmdArgs.has("parallel") ? 0
+      : cmdArgs.value("parallel") instanceof String n && !n.isEmpty() ? Integer.parseInt(n)
+      : DEFAULT_PARALLEL_CHUNK_SIZE;
 
-    WordprocessingMLPackage docx = WordprocessingMLPackage.load(new File(args[0]));
+    boolean stories = cmdArgs.has("stories");
+    boolean effectiveStyles = cmdArgs.has("effective-styles");
+    boolean fold = cmdArgs.has("fold");
+    boolean offsetIndex = cmdArgs.has("offset-index");
 
-    try (BufferedWriter bw = args.length >= 2
-          ? new BufferedWriter(new FileWriter(args[1]))
-          : new BufferedWriter(new OutputStreamWriter(System.out)))
+    if (cmdArgs.has("parallel") && parallelChunkSize < 1)
+      throw new RuntimeException("The --parallel option's chunk size must be at least 1.");
+    checkOptionCombination(
+      streaming, format, cache, selector, parallelChunkSize, stories, effectiveStyles, fold, offsetIndex, fileArgs.size() == 2
+    );
+
+    try (OutputStream os = stats.output(fileArgs.size() >= 2 ? new FileOutputStream(fileArgs.get(1)) : System.out))
     {
-      writeStructure(docx, bw);
+      switch (format)
+      {
+        case "text" ->
+        {
+          try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, UTF_8)))
+          {
+            if (cache != null)
+              cache.write(tool, docxFile, bw);
+            else if (parallelChunkSize > 0 || stories || effectiveStyles)
+              writeStructure(docxFile, parallelChunkSize, stories, effectiveStyles, bw, stats);
+            else if (fold)
+            {
+              SiblingFolder folder = new SiblingFolder(new StructureTextWriter(bw));
+              visitStructure(docxFile, streaming, selector, folder, stats);
+              folder.finish();
+            }
+            else if (offsetIndex)
+            {
+              StructureOffsetIndex.Builder indexBuilder = new StructureOffsetIndex.Builder(bw);
+              visitStructure(docxFile, streaming, selector, indexBuilder, stats);
+              indexBuilder.write(StructureOffsetIndex.indexFile(Path.of(fileArgs.get(1))));
+            }
+            else
+              visitStructure(docxFile, streaming, selector, new StructureTextWriter(bw), stats);
+          }
+        }
+        case "jsonl" ->
+        {
+          try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, UTF_8)))
+          {
+            visitStructure(docxFile, streaming, selector, new StructureJsonLinesWriter(bw), stats);
+          }
+        }
+        case "plain", "markdown" ->
+        {
+          try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, UTF_8)))
+          {
+            boolean markdown = format.equals("markdown");
+            // Without a selection the XML events are read directly in either mode, rather than through a traversal,
+            // so the text is the same with and without --streaming and includes content controls and insertions.
+            if (selector.selectsAll())
+              TextExtractor.extract(docxFile, markdown, bw, stats);
+            else
+              visitStructure(docxFile, streaming, selector, new TextExtractor(bw, markdown), stats);
+          }
+        }
+        case "fingerprints" ->
+        {
+          // A line per subtree, children before their parents: fingerprint, node count, depth and description.
+          try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, UTF_8)))
+          {
+            SubtreeFingerprinter fingerprinter = new SubtreeFingerprinter((node, depth, fingerprint, nodeCount) ->
+            {
+              bw.write(HexFormat.of().toHexDigits(fingerprint));
+              bw.write(" " + nodeCount + " " + depth + " " + nodeDescr(node));
+              bw.write('\n');
+            });
+            visitStructure(docxFile, streaming, selector, fingerprinter, stats);
+          }
+        }
+        case "binary" ->
+        {
+          try (BufferedOutputStream bos = new BufferedOutputStream(os))
+          {
+            visitStructure(docxFile, streaming, selector, new StructureBinaryWriter(bos), stats);
+          }
+        }
+        default -> throw new RuntimeException("Unknown format '" + format + "', expected one of: text|jsonl|binary|plain|markdown|fingerprints");
+      }
     }
+
+    stats.finish();
+  }
+
+  /// Throw a usage error if the options are combined in a way that isn't supported.
+  private static void checkOptionCombination(
+    boolean streaming, String format, @Nullable ResultCache cache, StructureSelector selector, int parallelChunkSize,
+    boolean stories, boolean effectiveStyles, boolean fold, boolean offsetIndex, boolean toOutputFile)
+  {
+    boolean text = format.equals("text");
+    boolean wholeDocument = selector.selectsAll();
+    boolean nonStreamingOnly = parallelChunkSize > 0 || stories || effectiveStyles;
+
+    if (cache != null && (!text || !wholeDocument))
+      throw new RuntimeException("The --cache option is only supported for the text format of whole documents.");
+    if (nonStreamingOnly && (streaming || cache != null || !text || !wholeDocument))
+      throw new RuntimeException(
+        "The --parallel, --stories and --effective-styles options are only supported for the non-streaming, uncached text format of whole documents."
+      );
+    if (fold && (cache != null || !text || nonStreamingOnly))
+      throw new RuntimeException(
+        "The --fold option is only supported for the uncached text format, without --parallel, --stories and --effective-styles."
+      );
+    if (offsetIndex && (!toOutputFile || cache != null || !text || !wholeDocument || fold || nonStreamingOnly))
+      throw new RuntimeException(
+        "The --offset-index option is only supported for the uncached text format of whole documents written to an output file, without --fold, --parallel, --stories and --effective-styles."
+      );
   }
 
   public static void writeStructure(WordprocessingMLPackage docx, BufferedWriter bw) throws IOException
+  {
+    visitStructure(docx, new StructureTextWriter(bw));
+  }
+
+  /// Visit the document's structure with either the streaming or the JAXB traversal.
+  static void visitStructure(File docxFile, boolean streaming, StructureVisitor visitor)
+    throws IOException, Docx4JException
+  {
+    visitStructure(docxFile, streaming, StructureSelector.ALL, visitor);
+  }
+
+  /// Visit the selected parts of the document's structure with either the streaming or the JAXB traversal.
+  static void visitStructure(File docxFile, boolean streaming, StructureSelector selector, StructureVisitor visitor)
+    throws IOException, Docx4JException
+  {
+    ToolStats stats = new ToolStats(streaming ? "streaming-structure" : "structure", docxFile.getPath(), false);
+    visitStructure(docxFile, streaming, selector, visitor, stats);
+    stats.finish();
+  }
+
+  /// Visit the selected parts of the document's structure, recording the phases and nodes visited in the stats.
+  static void visitStructure
+    (
+      File docxFile,
+      boolean streaming,
+      StructureSelector selector,
+      StructureVisitor visitor,
+      ToolStats stats
+    )
+    throws IOException, Docx4JException
+  {
+    StructureVisitor countingVisitor = stats.countingNodes(visitor);
+
+    if (streaming)
+    {
+      // Reading the main part's XML is interleaved with the traversal.
+      try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+      {
+        StreamingStructurePrinter.visitStructure(docxFile, selector, countingVisitor, stats);
+      }
+    }
+    else
+    {
+      WordprocessingMLPackage docx =
+        DocxPackages.loadWordprocessing(docxFile, DocxPackages.MAIN_DOCUMENT_PART, stats);
+      try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+      {
+        if (selector.selectsAll())
+          visitStructure(docx, countingVisitor);
+        else
+          visitStructure(docx, selector, countingVisitor);
+      }
+      finally
+      {
+        DocxPackages.close(docx);
+      }
+    }
+  }
+
+  /// Top level body items per parallel rendering task, when --parallel is given without a chunk size.
+  static final int DEFAULT_PARALLEL_CHUNK_SIZE = 64;
+
+  /// Write the text structure of the whole document, with its top level body items rendered in parallel if a chunk
+  /// size is given, followed by the structures of its story parts if wanted, and with effective rather than direct
+  /// paragraph and run properties if wanted, recording the phases and nodes visited in the stats.
+  static void writeStructure
+    (
+      File docxFile,
+      int parallelChunkSize,
+      boolean stories,
+      boolean effectiveStyles,
+      Writer w,
+      ToolStats stats
+    )
+    throws IOException, Docx4JException
+  {
+    Predicate<Relationship> partFilter = DocxPackages.MAIN_DOCUMENT_PART;
+    if (stories)
+      partFilter = partFilter.or(DocxPackages.STORY_PARTS);
+    if (effectiveStyles)
+      partFilter = partFilter.or(DocxPackages.STYLES_PART);
+
+    WordprocessingMLPackage docx = DocxPackages.loadWordprocessing(docxFile, partFilter, stats);
+    try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+    {
+      @Nullable EffectiveStyles styles = effectiveStyles ? EffectiveStyles.of(docx) : null;
+
+      if (stories)
+        w.write(storySectionHeading("document", null, docx.getMainDocumentPart()));
+
+      if (parallelChunkSize > 0)
+        writeStructureParallel(docx, parallelChunkSize, styles, w, stats);
+      else
+        visitStructure(docx, stats.countingNodes(new StructureTextWriter(w, styles)));
+
+      if (stories)
+        writeStories(docx, styles, w, stats);
+    }
+    finally
+    {
+      DocxPackages.close(docx);
+    }
+  }
+
+  /// Write the text structure with chunks of chunkSize top level body items rendered as fork-join tasks on the common
+  /// pool, writing the chunks' text in document order as each next one completes. The text format renders top level
+  /// items independently of each other, so the output is the same as from the sequential traversal. At most twice
+  /// the pool's parallelism of chunks are rendering or waiting to be written at any time, which bounds the rendered
+  /// text held in memory whatever the size of the document.
+  static void writeStructureParallel
+    (
+      WordprocessingMLPackage docx,
+      int chunkSize,
+      @Nullable EffectiveStyles styles,
+      Writer w,
+      ToolStats stats
+    )
+    throws IOException
+  {
+    List<Object> bodyItems = ((Document)docx.getMainDocumentPart().getJaxbElement()).getBody().getContent();
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int maxChunksInFlight = 2 * pool.getParallelism();
+    Deque<ForkJoinTask<String>> chunksInFlight = new ArrayDeque<>();
+
+    int nextChunkStart = 0;
+    while (nextChunkStart < bodyItems.size() || !chunksInFlight.isEmpty())
+    {
+      while (nextChunkStart < bodyItems.size() && chunksInFlight.size() < maxChunksInFlight)
+      {
+        List<Object> chunk =
+          bodyItems.subList(nextChunkStart, Math.min(nextChunkStart + chunkSize, bodyItems.size()));
+        chunksInFlight.add(pool.submit(() -> renderText(chunk, styles, stats)));
+        nextChunkStart += chunk.size();
+      }
+
+      w.write(chunksInFlight.remove().join());
+    }
+  }
+
+  /// Write the text structures of the story parts of the main document part, those with content of their own:
+  /// headers, footers, footnotes, endnotes and comments. The parts, unmarshalled in parallel when loaded, are rendered
+  /// concurrently and written in relationship id order, each in a section headed by its relationship type, id and part name.
+  static void writeStories(WordprocessingMLPackage docx, @Nullable EffectiveStyles styles, Writer w, ToolStats stats)
+    throws IOException
+  {
+    RelationshipsPart rp = docx.getMainDocumentPart().getRelationshipsPart();
+
+    List<Relationship> storyRels = rp.getRelationships().getRelationship().stream()
+      .filter(r -> !"External".equals(r.getTargetMode()) && DocxPackages.isStoryRelationship(r))
+      .sorted(WordPartsPrinter.REL_ID_ORDER)
+      .toList();
+
+    List<String> storyTexts = storyRels.parallelStream()
+      .map(r -> rp.getPart(r) instanceof JaxbXmlPart<?> part && part.getJaxbElement() instanceof Object root
+             ? storySectionHeading(relationshipTypeName(r), r, part) + renderText(storyItems(root), styles, stats)
+             : "")
+      .toList();
+
+    for (String storyText : storyTexts)
+      w.write(storyText);
+  }
+
+  private static String storySectionHeading(String storyType, @Nullable Relationship r, Part part)
+  {
+    return "=== " + storyType + (r != null ? " " + r.getId() : "") + " " + part.getPartName().getName() + "\n\n";
+  }
+
+  private static String relationshipTypeName(Relationship r)
+  {
+    return r.getType().substring(r.getType().lastIndexOf('/') + 1);
+  }
+
+  /// The top level items of a story part: the block level content of headers and footers, and the notes or comments
+  /// of the others, with their block level content nested in them.
+  static List<? extends Object> storyItems(Object storyRoot)
+  {
+    return switch (storyRoot)
+    {
+      case ContentAccessor ca -> ca.getContent();
+      case CTFootnotes f -> f.getFootnote();
+      case CTEndnotes e -> e.getEndnote();
+      case Comments c -> c.getComment();
+      default -> List.of();
+    };
+  }
+
+  private static String renderText(List<? extends Object> topLevelItems, @Nullable EffectiveStyles styles, ToolStats stats)
+  {
+    StringWriter sw = new StringWriter();
+    StructureVisitor visitor = stats.countingNodes(new StructureTextWriter(sw, styles));
+    try
+    {
+      for (Object item : topLevelItems)
+        visitContent(item, 0, visitor);
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e); // not thrown writing to a StringWriter
+    }
+    return sw.toString();
+  }
+
+  static void visitStructure(WordprocessingMLPackage docx, StructureVisitor visitor) throws IOException
   {
     Body templateBody = ((Document)docx.getMainDocumentPart().getJaxbElement()).getBody();
 
     for (Object bodyContentItem : templateBody.getContent())
+      visitContent(bodyContentItem, 0, visitor);
+  }
+
+  static void visitStructure(WordprocessingMLPackage docx, StructureSelector selector, StructureVisitor visitor)
+    throws IOException
+  {
+    List<Object> bodyItems = ((Document)docx.getMainDocumentPart().getJaxbElement()).getBody().getContent();
+
+    StructureSelector.BodyItemRange range = selector.bodyItems;
+    if (selector.bookmark instanceof String bookmark)
+      range = range.intersect(bookmarkBodyItems(bodyItems, bookmark));
+
+    for (int i = Math.max(range.first(), 0); i <= range.last() && i < bodyItems.size(); ++i)
+      visitSelectedContent(bodyItems.get(i), selector.bodyItemDepth(), selector, visitor);
+  }
+
+  /// Visit the content object's subtree, pruned to what the selector selects, with the content at the given depth
+  /// or StructureSelector.SEARCHING.
+  static void visitSelectedContent(Object contentObject, int depth, StructureSelector selector, StructureVisitor visitor)
+    throws IOException
+  {
+    Object o = nonNull(XmlUtils.unwrap(contentObject));
+
+    if (depth == StructureSelector.SEARCHING && !selector.isSelectedType(o.getClass()))
     {
-      bw.write(contentString(bodyContentItem, ""));
-      bw.write("\n");
+      if (selector.mayContainSelected(o.getClass()) && nestedContent(o) instanceof List<Object> nestedContent)
+      {
+        for (Object childContent : nestedContent)
+          visitSelectedContent(childContent, StructureSelector.SEARCHING, selector, visitor);
+      }
+      return;
     }
+
+    int nodeDepth = Math.max(depth, 0);
+    visitor.startNode(o, nodeDepth);
+
+    if (nodeDepth + 1 < selector.maxDepth && nestedContent(o) instanceof List<Object> nestedContent)
+    {
+      for (Object childContent : nestedContent)
+        visitSelectedContent(childContent, nodeDepth + 1, selector, visitor);
+    }
+
+    visitor.endNode(o, nodeDepth);
   }
 
-  private static String contentString(Object contentObject, String linesPrefix)
+  /// The top level body items from the one containing the named bookmark's start through the one containing its end.
+  private static StructureSelector.BodyItemRange bookmarkBodyItems(List<Object> bodyItems, String bookmark)
+  {
+    @Nullable BigInteger id = null;
+    int first = -1;
+
+    for (int i = 0; i < bodyItems.size(); ++i)
+    {
+      Deque<Object> pending = new ArrayDeque<>(List.of(bodyItems.get(i)));
+      while (!pending.isEmpty())
+      {
+        Object contentObject = pending.pop();
+        Object o = nonNull(XmlUtils.unwrap(contentObject));
+
+        if (id == null && o instanceof CTBookmark b && bookmark.equals(b.getName()))
+        {
+          id = b.getId();
+          first = i;
+        }
+        else if (id != null && contentObject instanceof JAXBElement<?> je &&
+                 je.getName().getLocalPart().equals("bookmarkEnd") && o instanceof CTMarkupRange mr &&
+                 id.equals(mr.getId()))
+        {
+          return new StructureSelector.BodyItemRange(first, i);
+        }
+
+        if (nestedContent(o) instanceof List<Object> nestedContent)
+          nestedContent.reversed().forEach(pending::push);
+      }
+    }
+
+    if (id == null)
+      throw new RuntimeException("Bookmark '" + bookmark + "' not found.");
+    return new StructureSelector.BodyItemRange(first, bodyItems.size() - 1);
+  }
+
+  static void visitContent(Object contentObject, int depth, StructureVisitor visitor) throws IOException
   {
-    StringBuilder sb = new StringBuilder();
     Object o = nonNull(XmlUtils.unwrap(contentObject));
 
-    sb.append(linesPrefix).append(o.getClass().getSimpleName());
+    visitor.startNode(o, depth);
+
+    if (nestedContent(o) instanceof List<Object> nestedContent)
+    {
+      for (Object childContent : nestedContent)
+        visitContent(childContent, depth + 1, visitor);
+    }
+
+    visitor.endNode(o, depth);
+  }
+
+  /// Whether nodes of the class can have nested content, as returned by nestedContent.
+  static boolean hasNestedContent(Class<?> c)
+  {
+    return ContentAccessor.class.isAssignableFrom(c) || AlternateContent.class.isAssignableFrom(c) ||
+      Drawing.class.isAssignableFrom(c) || Choice.class.isAssignableFrom(c) ||
+      CTFtnEdn.class.isAssignableFrom(c) || Comment.class.isAssignableFrom(c);
+  }
+
+  static @Nullable List<Object> nestedContent(Object o)
+  {
+    return switch (o)
+    {
+      case ContentAccessor ca -> ca.getContent();
+      case AlternateContent ac -> new ArrayList<>(ac.getChoice());
+      case Drawing d -> d.getAnchorOrInline();
+      case Choice c -> c.getAny();
+      case CTFtnEdn fe -> fe.getContent();
+      case Comment c -> c.getContent();
+      default -> null;
+    };
+  }
+
+  // The node's class name followed by any interesting attributes not part of nested content, for the node's initial line.
+  static String nodeDescr(Object o)
+  {
+    if (o instanceof SiblingFolder.Repeats r)
+      return "\u00d7" + r.count();
+
+    StringBuilder sb = new StringBuilder(o.getClass().getSimpleName());
+    appendAttributesDescr(o, false, sb);
+    return sb.toString();
+  }
+
+  /// The node's description as by nodeDescr, but with the properties that nodeDescr shows by their identities
+  /// (numbering, section properties, tabs, run borders and emphasis, table cell margins and table positioning)
+  /// described by their values, a section's by a digest of its XML. Equal nodes are described alike across documents
+  /// and loads, so this is the description to compare or hash nodes by, while nodeDescr's is the printed one.
+  static String nodeValueDescr(Object o)
+  {
+    if (o instanceof SiblingFolder.Repeats r)
+      return "\u00d7" + r.count();
+
+    StringBuilder sb = new StringBuilder(o.getClass().getSimpleName());
+    appendAttributesDescr(o, true, sb);
+    return sb.toString();
+  }
+
+  /// The node's description as by nodeDescr, but with the effective properties of paragraphs and runs, runs being in
+  /// the given paragraph if any.
+  static String effectiveNodeDescr(Object o, EffectiveStyles styles, @Nullable P paragraph)
+  {
+    return switch (o)
+    {
+      case P p -> "P ppr: { " + paragraphDescr(styles.paragraphProperties(p.getPPr())) + " }";
+      case R r -> "R" + runPropsDescr(styles.runProperties(paragraph != null ? paragraph.getPPr() : null, r.getRPr()));
+      default -> nodeDescr(o);
+    };
+  }
+
+  // Just the attributes part of the node's value description, without its leading space.
+  static String attributesValueDescr(Object o)
+  {
+    StringBuilder sb = new StringBuilder();
+    appendAttributesDescr(o, true, sb);
+    return !sb.isEmpty() && sb.charAt(0) == ' ' ? sb.substring(1) : sb.toString();
+  }
 
-    // Append any interesting attributes not part of nested content here, to be displayed on initial line.
+  private static void appendAttributesDescr(Object o, boolean byValue, StringBuilder sb)
+  {
     switch (o)
     {
       case P p ->
-        { if (p.getPPr() instanceof PPr ppr) sb.append(" ppr: { ").append(paragraphDescr(ppr)).append(" }"); }
+        { if (p.getPPr() instanceof PPr ppr) sb.append(" ppr: { ").append(paragraphDescr(ppr, byValue)).append(" }"); }
       case Text t ->
         sb.append(" \"").append(t.getValue()).append("\"");
       case R r ->
-        sb.append(runPropsDescr(r.getRPr()));
+        sb.append(runPropsDescr(r.getRPr(), byValue));
       case Tc tc ->
-        sb.append(" ").append(tableCellPropsDescr(tc.getTcPr()));
+        sb.append(" ").append(tableCellPropsDescr(tc.getTcPr(), byValue));
       case Tbl t ->
-        sb.append(" tblpr: { ").append(tablePropsDescr(t.getTblPr())).append(" }, tblgrid: ").append(t.getTblGrid() instanceof TblGrid g ? tableGridDescr(g) : "null");
+        sb.append(" tblpr: { ").append(tablePropsDescr(t.getTblPr(), byValue)).append(" }, tblgrid: ").append(t.getTblGrid() instanceof TblGrid g ? tableGridDescr(g) : "null");
       case CTBookmark b ->
         sb.append(" id: ").append(b.getId()).append(", name: ").append(b.getName());
       case Hyperlink h ->
@@ -145,33 +658,25 @@ class DocxMainPartBodyStructurePrinter
         sb.append(" ").append(anchorDescr(a));
       case FldChar f ->
         sb.append(" chartype: ").append(f.getFldCharType());
-      default -> {}
-    }
-
-    sb.append("\n");
-
-    @Nullable List<Object> nestedContent =
-      switch (o)
-      {
-        case ContentAccessor ca -> ca.getContent();
-        case AlternateContent ac -> new ArrayList<>(ac.getChoice());
-        case Drawing d -> d.getAnchorOrInline();
-        case Choice c -> c.getAny();
-        default -> null;
-      };
-
-    if (nestedContent != null)
-    {
-      boolean pastFirst = false;
-      for (Object childContent : nestedContent)
+      case CTFtnEdn fe ->
       {
-          if (pastFirst) sb.append("\n");
-          else pastFirst = true;
-          sb.append(contentString(childContent, linesPrefix + "  "));
+        sb.append(" id: ").append(fe.getId());
+        if (fe.getType() instanceof STFtnEdn t)
+          sb.append(", type: ").append(t.value());
       }
+      case Comment c ->
+        sb.append(" id: ").append(c.getId()).append(", author: ").append(c.getAuthor());
+      default -> {}
     }
+  }
 
-    return sb.toString();
+  // Whether nodes of the class are described by more than their class name, either with attributes in nodeDescr or
+  // with nested content that is not a ContentAccessor's. Streaming traversal only unmarshals such leaf elements.
+  static boolean describesValue(Class<?> c)
+  {
+    return Text.class.isAssignableFrom(c) || CTBookmark.class.isAssignableFrom(c) || FldChar.class.isAssignableFrom(c) ||
+      Graphic.class.isAssignableFrom(c) || Inline.class.isAssignableFrom(c) || Anchor.class.isAssignableFrom(c) ||
+      Drawing.class.isAssignableFrom(c) || AlternateContent.class.isAssignableFrom(c) || Choice.class.isAssignableFrom(c);
   }
 
   private static String graphicDescr(Graphic g)
@@ -198,7 +703,12 @@ class DocxMainPartBodyStructurePrinter
     return sb.toString();
   }
 
-  private static String tableCellPropsDescr(@Nullable TcPr pr)
+  static String tableCellPropsDescr(@Nullable TcPr pr)
+  {
+    return tableCellPropsDescr(pr, false);
+  }
+
+  private static String tableCellPropsDescr(@Nullable TcPr pr, boolean byValue)
   {
     if (pr == null)
       return "";
@@ -225,10 +735,10 @@ class DocxMainPartBodyStructurePrinter
       props.add("tcfittext: " + b.isVal());
     if (pr.getTcMar() instanceof TcMar b)
       props.add("tcmar: {" +
-        "top: " + String.valueOf(b.getTop()) +
-        ", right: " + String.valueOf(b.getRight()) +
-        ", bottom: " + String.valueOf(b.getBottom()) +
-        ", left: " + String.valueOf(b.getLeft()) +
+        "top: " + widthDescr(b.getTop(), byValue) +
+        ", right: " + widthDescr(b.getRight(), byValue) +
+        ", bottom: " + widthDescr(b.getBottom(), byValue) +
+        ", left: " + widthDescr(b.getLeft(), byValue) +
         "}"
       );
     if (pr.getTcW() instanceof TblWidth w)
@@ -243,178 +753,387 @@ class DocxMainPartBodyStructurePrinter
     return String.join(", ", props);
   }
 
-  private static String runPropsDescr(@Nullable RPrAbstract pr)
+  static String runPropsDescr(@Nullable RPrAbstract pr)
+  {
+    return runPropsDescr(pr, false);
+  }
+
+  private static String runPropsDescr(@Nullable RPrAbstract pr, boolean byValue)
   {
     if (pr == null)
       return "";
 
-    var sb = new StringBuilder();
-
-    if (pr.getB() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" bold");
-    if (pr.getBCs() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" bold-complex-script");
-    if (pr.getCaps() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" caps");
-    if (pr.getCs() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" complex-script");
-    if (pr.getDstrike() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" double-strike");
-    if (pr.getEmboss() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" emboss");
-    if (pr.getI() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" italics");
-    if (pr.getICs() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" italics-complex-script");
-    if (pr.getImprint() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" imprint");
-    if (pr.getNoProof() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" no-proof");
-    if (pr.getOMath() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" omath");
-    if (pr.getOutline() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" outline");
-    if (pr.getRtl() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" rtl");
-    if (pr.getShadow() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" shadow");
-    if (pr.getSmallCaps() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" smallcaps");
-    if (pr.getSnapToGrid() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" snaptogrid");
-    if (pr.getSpecVanish() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" specvanish");
-    if (pr.getSmallCaps() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" smallcaps");
-    if (pr.getStrike() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" strike");
-    if (pr.getVanish() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" vanish");
-    if (pr.getWebHidden() instanceof BooleanDefaultTrue b && b.isVal())
-      sb.append(" webhidden");
-    if (pr.getColor() instanceof Color c)
-      sb.append(" color: ").append(c.getVal());
-    if (pr.getHighlight() instanceof Highlight h)
-      sb.append(" highlight: ").append(h.getHexVal());
-    if (pr.getBdr() instanceof CTBorder b)
-      sb.append(" border: ").append(b.toString());
-    if (pr.getEm() instanceof CTEm e)
-      sb.append(" em: ").append(e.toString());
-    if (pr.getEffect() instanceof CTTextEffect e)
-      sb.append(" texteffect: ").append(e.getVal().name());
-    if (pr.getRFonts() instanceof RFonts f)
-      sb.append(" fonts: { ascii: \"").append(f.getAscii()).append("\", cs: \"").append(f.getCs()).append("\", hansi: \"").append(f.getHAnsi()).append("\", eastasia: \"").append(f.getEastAsia()).append("\" }");;
-    if (pr.getRStyle() instanceof RStyle s)
-      sb.append(" style: ").append(s.getVal());
-    if (pr.getSz() instanceof HpsMeasure s)
-      sb.append(" size: ").append(s.getVal());
-    if (pr.getSzCs() instanceof HpsMeasure s)
-      sb.append(" complex-script-size: ").append(s.getVal());
+    RunPropsKey key = RunPropsKey.of(pr, byValue);
+    return key.cacheable() ? runPropsDescrs.get(key, RunPropsKey::descr) : key.descr();
+  }
 
-    return sb.toString();
+  static String paragraphDescr(@Nullable PPr pr)
+  {
+    return paragraphDescr(pr, false);
   }
 
-  private static String paragraphDescr(@Nullable PPr pr)
+  private static String paragraphDescr(@Nullable PPr pr, boolean byValue)
   {
     if (pr == null)
       return "null";
 
-    List<String> props = new ArrayList();
+    ParagraphPropsKey key = ParagraphPropsKey.of(pr, byValue);
+    return key.cacheable() ? paragraphPropsDescrs.get(key, ParagraphPropsKey::descr) : key.descr();
+  }
 
-    if (pr.getAdjustRightInd() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("adjustrightind");
-    if (pr.getAutoSpaceDE() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("autospacede");
-    if (pr.getAutoSpaceDN() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("autospacedn");
-    if (pr.getBidi() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("bidi");
-    if (pr.getCnfStyle() instanceof CTCnf cnf)
-      props.add("cnf: " + cnf.getVal());
-    if (pr.getCollapsed() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("collapsed");
-    if (pr.getContextualSpacing() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("contextualspacing");
-    if (pr.getDivId() instanceof DivId d && d.getVal() instanceof BigInteger i)
-      props.add("divid: " + i);
-    if (pr.getFramePr() instanceof CTFramePr fpr)
-      props.add("framepr: { h: " + fpr.getH() + ", hspace" + fpr.getHSpace() + ", ... }");
-    if (pr.getInd() instanceof Ind i)
-      props.add("ind: { left: " + i.getLeft() + ", ... }");
-    if (pr.getJc() instanceof Jc jc)
-      props.add("jc: " + jc.getVal());
-    if (pr.getKeepLines() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("keeplines");
-    if (pr.getKeepNext() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("keepnext");
-    if (pr.getKinsoku() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("kinsoku");
-    if (pr.getMirrorIndents() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("mirrorindents");
-    if (pr.getNumPr() instanceof NumPr npr)
-      props.add("numpr: { numid: " + npr.getNumId() + ", ilvl: " + npr.getIlvl() + " }");
-    if (pr.getOutlineLvl() instanceof OutlineLvl l)
-      props.add("outlinelvl: " + l.getVal());
-    if (pr.getOverflowPunct() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("overflowpunct");
-    if (pr.getPageBreakBefore() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("pagebreakbefore");
-    if (pr.getPBdr() instanceof PBdr pbdr)
-      props.add("pbdr: { " +
-        "top: " + borderDescr(pbdr.getTop()) + ", " +
-        "right: " + borderDescr(pbdr.getRight()) + ", " +
-        "bottom: " + borderDescr(pbdr.getBottom()) + ", " +
-        "left: " + borderDescr(pbdr.getLeft()) + ", " +
-        "bar: " + borderDescr(pbdr.getBar()) + ", " +
-        "between: " + borderDescr(pbdr.getBetween()) +
-        " }"
+  /// Add one to the counts of the run properties present, indexed as RUN_PROPS_COUNTER_NAMES.
+  static void countRunProps(RPrAbstract pr, long[] counts)
+  {
+    RunPropsKey.of(pr, false).count(counts);
+  }
+
+  /// Add one to the counts of the paragraph properties present, indexed as PARAGRAPH_PROPS_COUNTER_NAMES.
+  static void countParagraphProps(PPr pr, long[] counts)
+  {
+    ParagraphPropsKey.of(pr, false).count(counts);
+  }
+
+  private static List<String> counterNames(String[] flagDescrs, String... otherNames)
+  {
+    List<String> res = new ArrayList<>();
+    int countedFlags = countedFlags(flagDescrs);
+    for (int i = 0; i < flagDescrs.length; ++i)
+      if ((countedFlags & 1 << i) != 0)
+        res.add(flagDescrs[i].strip());
+    res.addAll(List.of(otherNames));
+    return List.copyOf(res);
+  }
+
+  /// The bits of the flags with counters: a flag described like an earlier one is shown again but not counted again.
+  private static int countedFlags(String[] flagDescrs)
+  {
+    int res = 0;
+    for (int i = 0; i < flagDescrs.length; ++i)
+      if (List.of(flagDescrs).indexOf(flagDescrs[i]) == i)
+        res |= 1 << i;
+    return res;
+  }
+
+  /// Add one to the counts of the counted flags set, indexed in bit order, followed by those of the values present.
+  private static void count(int flags, int countedFlags, List<? extends @Nullable Object> values, long[] counts)
+  {
+    int counter = 0;
+    for (int bits = countedFlags; bits != 0; bits &= bits - 1, ++counter)
+      if ((flags & Integer.lowestOneBit(bits)) != 0)
+        ++counts[counter];
+    for (int i = 0; i < values.size(); ++i)
+      if (values.get(i) != null)
+        ++counts[counter + i];
+  }
+
+  /// Hit and miss counts of the property description caches.
+  static List<String> descriptionCacheStats()
+  {
+    return List.of(runPropsDescrs.statsDescr(), paragraphPropsDescrs.statsDescr());
+  }
+
+  // Reports repeat a small number of run and paragraph property combinations many times over, so their descriptions
+  // are cached by keys holding just the property values that the descriptions show, and rendered from the keys alone.
+  private static final DescriptionCache<RunPropsKey> runPropsDescrs =
+    new DescriptionCache<>("run properties", 10_000);
+  private static final DescriptionCache<ParagraphPropsKey> paragraphPropsDescrs =
+    new DescriptionCache<>("paragraph properties", 10_000);
+
+  private static final String[] RUN_PROPS_FLAG_DESCRS = {
+    " bold", " bold-complex-script", " caps", " complex-script", " double-strike", " emboss", " italics",
+    " italics-complex-script", " imprint", " no-proof", " omath", " outline", " rtl", " shadow", " smallcaps",
+    " snaptogrid", " specvanish", " smallcaps", " strike", " vanish", " webhidden"
+  };
+  private static final int RUN_PROPS_FONTS_BIT = 1 << RUN_PROPS_FLAG_DESCRS.length;
+  private static final int RUN_PROPS_COUNTED_FLAGS = countedFlags(RUN_PROPS_FLAG_DESCRS) | RUN_PROPS_FONTS_BIT;
+
+  /// The names of the run properties that runPropsDescr shows, in the order counted by countRunProps: its flags, the
+  /// presence of fonts, then its other properties.
+  static final List<String> RUN_PROPS_COUNTER_NAMES = counterNames(
+    RUN_PROPS_FLAG_DESCRS,
+    "fonts", "color", "highlight", "border", "em", "texteffect", "style", "size", "complex-script-size"
+  );
+
+  /// The run property values shown in a run properties description. The boolean properties are the bits of flags in
+  /// the order of RUN_PROPS_FLAG_DESCRS, followed by a bit for the presence of fonts. Other properties are null when
+  /// absent. Border and emphasis are described by their identities (their classes don't override toString), so
+  /// descriptions including them are not cached: they would never be hit, and would keep their documents reachable.
+  /// Keys of value descriptions hold their value descriptions instead, which are cached.
+  private record RunPropsKey
+    (
+      int flags,
+      @Nullable Object color,
+      @Nullable Object highlight,
+      @Nullable Object border,
+      @Nullable Object em,
+      @Nullable String textEffect,
+      @Nullable String fontAscii,
+      @Nullable String fontCs,
+      @Nullable String fontHAnsi,
+      @Nullable String fontEastAsia,
+      @Nullable Object style,
+      @Nullable Object size,
+      @Nullable Object complexScriptSize
+    )
+  {
+    static RunPropsKey of(RPrAbstract pr, boolean byValue)
+    {
+      int flags =
+        flag(0, pr.getB()) | flag(1, pr.getBCs()) | flag(2, pr.getCaps()) | flag(3, pr.getCs()) |
+        flag(4, pr.getDstrike()) | flag(5, pr.getEmboss()) | flag(6, pr.getI()) | flag(7, pr.getICs()) |
+        flag(8, pr.getImprint()) | flag(9, pr.getNoProof()) | flag(10, pr.getOMath()) | flag(11, pr.getOutline()) |
+        flag(12, pr.getRtl()) | flag(13, pr.getShadow()) | flag(14, pr.getSmallCaps()) | flag(15, pr.getSnapToGrid()) |
+        flag(16, pr.getSpecVanish()) | flag(17, pr.getSmallCaps()) | flag(18, pr.getStrike()) |
+        flag(19, pr.getVanish()) | flag(20, pr.getWebHidden());
+
+      @Nullable RFonts f = pr.getRFonts();
+      if (f != null)
+        flags |= RUN_PROPS_FONTS_BIT;
+
+      return new RunPropsKey(
+        flags,
+        pr.getColor() instanceof Color c ? present(c.getVal()) : null,
+        pr.getHighlight() instanceof Highlight h ? present(h.getHexVal()) : null,
+        byValue && pr.getBdr() instanceof CTBorder b ? "{ " + borderDescr(b) + " }" : pr.getBdr(),
+        byValue && pr.getEm() instanceof CTEm e ? present(e.getVal()) : pr.getEm(),
+        pr.getEffect() instanceof CTTextEffect e ? e.getVal().name() : null,
+        f != null ? f.getAscii() : null,
+        f != null ? f.getCs() : null,
+        f != null ? f.getHAnsi() : null,
+        f != null ? f.getEastAsia() : null,
+        pr.getRStyle() instanceof RStyle s ? present(s.getVal()) : null,
+        pr.getSz() instanceof HpsMeasure s ? present(s.getVal()) : null,
+        pr.getSzCs() instanceof HpsMeasure s ? present(s.getVal()) : null
       );
-    if (pr.getPStyle() instanceof PStyle s)
-      props.add("pstyle: " + s.getVal());
-    if (pr.getRPr() instanceof ParaRPr prpr)
-      props.add("rpr: { " + runPropsDescr(prpr) + " }");
-    if (pr.getSectPr() instanceof SectPr s)
-      props.add("sectpr: " + s);
-    if (pr.getShd() instanceof CTShd shd)
-      props.add("shd: { color: " + shd.getColor() + ", fill: " + shd.getFill() + ", ... }");
-    if (pr.getSnapToGrid() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("snaptogrid");
-    if (pr.getSpacing() instanceof Spacing s)
-      props.add("spacing: { " +
-        "line: " + s.getLine() + ", " +
-        "linerule: " + s.getLineRule() + ", " +
-        "before: " + s.getBefore() + ", " +
-        "beforelines: " + s.getBeforeLines() + ", " +
-        "after: " + s.getAfter() + ", " +
-        "afterlines: " + s.getAfterLines() +
-        " }"
+    }
+
+    boolean cacheable() { return !(border instanceof CTBorder) && !(em instanceof CTEm); }
+
+    void count(long[] counts)
+    {
+      // The fonts bit follows the flags, and is counted as the first of the other properties.
+      DocxMainPartBodyStructurePrinter.count(
+        flags, RUN_PROPS_COUNTED_FLAGS,
+        Arrays.asList(color, highlight, border, em, textEffect, style, size, complexScriptSize), counts
       );
-    if (pr.getSuppressAutoHyphens() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("suppressautohyphens");
-    if (pr.getSuppressLineNumbers() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("suppresslinenumbers");
-    if (pr.getSuppressOverlap() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("suppressoverlap");
-    if (pr.getTabs() instanceof Tabs t)
-      props.add("tabs: " + t.getTab());
-    if (pr.getTextAlignment() instanceof TextAlignment ta)
-      props.add("textalignment: " + ta.getVal());
-    if (pr.getTextboxTightWrap() instanceof CTTextboxTightWrap ttw)
-      props.add("textboxtightwrap: " + ttw.getVal());
-    if (pr.getTextDirection() instanceof TextDirection td)
-      props.add("textdirection: " + td.getVal());
-    if (pr.getTopLinePunct() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("toplinepunct");
-    if (pr.getWidowControl() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("windowcontrol");
-    if (pr.getWordWrap() instanceof BooleanDefaultTrue b && b.isVal())
-      props.add("wordwrap");
+    }
 
-    return String.join(", ", props);
+    String descr()
+    {
+      var sb = new StringBuilder();
+
+      for (int i = 0; i < RUN_PROPS_FLAG_DESCRS.length; ++i)
+        if ((flags & 1 << i) != 0)
+          sb.append(RUN_PROPS_FLAG_DESCRS[i]);
+      if (color != null)
+        sb.append(" color: ").append(color);
+      if (highlight != null)
+        sb.append(" highlight: ").append(highlight);
+      if (border != null)
+        sb.append(" border: ").append(border.toString());
+      if (em != null)
+        sb.append(" em: ").append(em.toString());
+      if (textEffect != null)
+        sb.append(" texteffect: ").append(textEffect);
+      if ((flags & RUN_PROPS_FONTS_BIT) != 0)
+        sb.append(" fonts: { ascii: \"").append(fontAscii).append("\", cs: \"").append(fontCs).append("\", hansi: \"").append(fontHAnsi).append("\", eastasia: \"").append(fontEastAsia).append("\" }");
+      if (style != null)
+        sb.append(" style: ").append(style);
+      if (size != null)
+        sb.append(" size: ").append(size);
+      if (complexScriptSize != null)
+        sb.append(" complex-script-size: ").append(complexScriptSize);
+
+      return sb.toString();
+    }
   }
 
+  private static final String[] PARAGRAPH_PROPS_FLAG_DESCRS = {
+    "adjustrightind", "autospacede", "autospacedn", "bidi", "collapsed", "contextualspacing", "keeplines", "keepnext",
+    "kinsoku", "mirrorindents", "overflowpunct", "pagebreakbefore", "snaptogrid", "suppressautohyphens",
+    "suppresslinenumbers", "suppressoverlap", "toplinepunct", "windowcontrol", "wordwrap"
+  };
+  private static final int PARAGRAPH_PROPS_COUNTED_FLAGS = countedFlags(PARAGRAPH_PROPS_FLAG_DESCRS);
 
-  private static String borderDescr(@Nullable CTBorder b)
+  /// The names of the paragraph properties that paragraphDescr shows, in the order counted by countParagraphProps:
+  /// its flags, then its other properties.
+  static final List<String> PARAGRAPH_PROPS_COUNTER_NAMES = counterNames(
+    PARAGRAPH_PROPS_FLAG_DESCRS,
+    "cnf", "divid", "framepr", "ind", "jc", "numpr", "outlinelvl", "pbdr", "pstyle", "rpr", "sectpr", "shd", "spacing",
+    "tabs", "textalignment", "textboxtightwrap", "textdirection"
+  );
+
+  /// The paragraph property values shown in a paragraph properties description. The boolean properties are the bits
+  /// of flags in the order of PARAGRAPH_PROPS_FLAG_DESCRS. Other properties are null when absent, with those having
+  /// several values shown held as lists. Numbering properties, section properties and tabs are described by their
+  /// identities, so as for run properties descriptions including them are not cached, unlike the keys of value
+  /// descriptions which hold their value descriptions instead.
+  private record ParagraphPropsKey
+    (
+      int flags,
+      @Nullable Object cnf,
+      @Nullable Object divId,
+      @Nullable List<?> framePr,
+      @Nullable Object indLeft,
+      @Nullable Object jc,
+      @Nullable Object numPr,
+      @Nullable Object outlineLvl,
+      @Nullable List<String> pBdr,
+      @Nullable Object pStyle,
+      @Nullable RunPropsKey rPr,
+      @Nullable Object sectPr,
+      @Nullable List<?> shd,
+      @Nullable List<?> spacing,
+      @Nullable List<?> tabs,
+      @Nullable Object textAlignment,
+      @Nullable Object textboxTightWrap,
+      @Nullable Object textDirection
+    )
+  {
+    static ParagraphPropsKey of(PPr pr, boolean byValue)
+    {
+      int flags =
+        flag(0, pr.getAdjustRightInd()) | flag(1, pr.getAutoSpaceDE()) | flag(2, pr.getAutoSpaceDN()) |
+        flag(3, pr.getBidi()) | flag(4, pr.getCollapsed()) | flag(5, pr.getContextualSpacing()) |
+        flag(6, pr.getKeepLines()) | flag(7, pr.getKeepNext()) | flag(8, pr.getKinsoku()) |
+        flag(9, pr.getMirrorIndents()) | flag(10, pr.getOverflowPunct()) | flag(11, pr.getPageBreakBefore()) |
+        flag(12, pr.getSnapToGrid()) | flag(13, pr.getSuppressAutoHyphens()) | flag(14, pr.getSuppressLineNumbers()) |
+        flag(15, pr.getSuppressOverlap()) | flag(16, pr.getTopLinePunct()) | flag(17, pr.getWidowControl()) |
+        flag(18, pr.getWordWrap());
+
+      return new ParagraphPropsKey(
+        flags,
+        pr.getCnfStyle() instanceof CTCnf cnf ? present(cnf.getVal()) : null,
+        pr.getDivId() instanceof DivId d ? d.getVal() : null,
+        pr.getFramePr() instanceof CTFramePr fpr ? Arrays.asList(fpr.getH(), fpr.getHSpace()) : null,
+        pr.getInd() instanceof Ind i ? present(i.getLeft()) : null,
+        pr.getJc() instanceof Jc jc ? present(jc.getVal()) : null,
+        byValue && pr.getNumPr() instanceof NumPr n
+          ? numPrDescr(n.getNumId() instanceof NumId id ? id.getVal() : null,
+                       n.getIlvl() instanceof Ilvl l ? l.getVal() : null)
+          : pr.getNumPr(),
+        pr.getOutlineLvl() instanceof OutlineLvl l ? present(l.getVal()) : null,
+        pr.getPBdr() instanceof PBdr pbdr
+          ? List.of(borderDescr(pbdr.getTop()), borderDescr(pbdr.getRight()), borderDescr(pbdr.getBottom()),
+                    borderDescr(pbdr.getLeft()), borderDescr(pbdr.getBar()), borderDescr(pbdr.getBetween()))
+          : null,
+        pr.getPStyle() instanceof PStyle s ? present(s.getVal()) : null,
+        pr.getRPr() instanceof ParaRPr prpr ? RunPropsKey.of(prpr, byValue) : null,
+        byValue && pr.getSectPr() instanceof SectPr sp ? sectPrDigestDescr(sp) : pr.getSectPr(),
+        pr.getShd() instanceof CTShd shd ? Arrays.asList(shd.getColor(), shd.getFill()) : null,
+        pr.getSpacing() instanceof Spacing s
+          ? Arrays.asList(s.getLine(), s.getLineRule(), s.getBefore(), s.getBeforeLines(), s.getAfter(), s.getAfterLines())
+          : null,
+        pr.getTabs() instanceof Tabs t
+          ? (byValue ? t.getTab().stream().map(DocxMainPartBodyStructurePrinter::tabStopDescr).toList() : t.getTab())
+          : null,
+        pr.getTextAlignment() instanceof TextAlignment ta ? present(ta.getVal()) : null,
+        pr.getTextboxTightWrap() instanceof CTTextboxTightWrap ttw ? present(ttw.getVal()) : null,
+        pr.getTextDirection() instanceof TextDirection td ? present(td.getVal()) : null
+      );
+    }
+
+    boolean cacheable()
+    {
+      return !(numPr instanceof NumPr) && !(sectPr instanceof SectPr) &&
+        (tabs == null || tabs.stream().noneMatch(CTTabStop.class::isInstance)) && (rPr == null || rPr.cacheable());
+    }
+
+    void count(long[] counts)
+    {
+      DocxMainPartBodyStructurePrinter.count(
+        flags, PARAGRAPH_PROPS_COUNTED_FLAGS,
+        Arrays.asList(cnf, divId, framePr, indLeft, jc, numPr, outlineLvl, pBdr, pStyle, rPr, sectPr, shd, spacing, tabs,
+                      textAlignment, textboxTightWrap, textDirection),
+        counts
+      );
+    }
+
+    String descr()
+    {
+      List<String> props = new ArrayList<>();
+
+      addFlags(props, 0, 4);
+      if (cnf != null)
+        props.add("cnf: " + cnf);
+      addFlags(props, 4, 6);
+      if (divId != null)
+        props.add("divid: " + divId);
+      if (framePr != null)
+        props.add("framepr: { h: " + framePr.get(0) + ", hspace" + framePr.get(1) + ", ... }");
+      if (indLeft != null)
+        props.add("ind: { left: " + indLeft + ", ... }");
+      if (jc != null)
+        props.add("jc: " + jc);
+      addFlags(props, 6, 10);
+      if (numPr != null)
+        props.add("numpr: " + (numPr instanceof NumPr n ? numPrDescr(n.getNumId(), n.getIlvl()) : numPr));
+      if (outlineLvl != null)
+        props.add("outlinelvl: " + outlineLvl);
+      addFlags(props, 10, 12);
+      if (pBdr != null)
+        props.add("pbdr: { " +
+          "top: " + pBdr.get(0) + ", " +
+          "right: " + pBdr.get(1) + ", " +
+          "bottom: " + pBdr.get(2) + ", " +
+          "left: " + pBdr.get(3) + ", " +
+          "bar: " + pBdr.get(4) + ", " +
+          "between: " + pBdr.get(5) +
+          " }"
+        );
+      if (pStyle != null)
+        props.add("pstyle: " + pStyle);
+      if (rPr != null)
+        props.add("rpr: { " + (rPr.cacheable() ? runPropsDescrs.get(rPr, RunPropsKey::descr) : rPr.descr()) + " }");
+      if (sectPr != null)
+        props.add("sectpr: " + sectPr);
+      if (shd != null)
+        props.add("shd: { color: " + shd.get(0) + ", fill: " + shd.get(1) + ", ... }");
+      addFlags(props, 12, 13);
+      if (spacing != null)
+        props.add("spacing: { " +
+          "line: " + spacing.get(0) + ", " +
+          "linerule: " + spacing.get(1) + ", " +
+          "before: " + spacing.get(2) + ", " +
+          "beforelines: " + spacing.get(3) + ", " +
+          "after: " + spacing.get(4) + ", " +
+          "afterlines: " + spacing.get(5) +
+          " }"
+        );
+      addFlags(props, 13, 16);
+      if (tabs != null)
+        props.add("tabs: " + tabs);
+      if (textAlignment != null)
+        props.add("textalignment: " + textAlignment);
+      if (textboxTightWrap != null)
+        props.add("textboxtightwrap: " + textboxTightWrap);
+      if (textDirection != null)
+        props.add("textdirection: " + textDirection);
+      addFlags(props, 16, 19);
+
+      return String.join(", ", props);
+    }
+
+    private void addFlags(List<String> props, int fromIndex, int toIndex)
+    {
+      for (int i = fromIndex; i < toIndex; ++i)
+        if ((flags & 1 << i) != 0)
+          props.add(PARAGRAPH_PROPS_FLAG_DESCRS[i]);
+    }
+  }
+
+  private static int flag(int index, @Nullable BooleanDefaultTrue b)
+  {
+    return b != null && b.isVal() ? 1 << index : 0;
+  }
+
+  /// The value of a present property for a description key, with a null value held as "null", which it's shown as.
+  private static Object present(@Nullable Object value)
+  {
+    return value != null ? value : "null";
+  }
+
+  static String borderDescr(@Nullable CTBorder b)
   {
     if (b == null)
       return "null";
@@ -441,7 +1160,12 @@ class DocxMainPartBodyStructurePrinter
     return String.join(", ", props);
   }
 
-  private static String tablePropsDescr(TblPr pr)
+  static String tablePropsDescr(TblPr pr)
+  {
+    return tablePropsDescr(pr, false);
+  }
+
+  private static String tablePropsDescr(TblPr pr, boolean byValue)
   {
     if (pr == null)
       return "null";
@@ -477,7 +1201,7 @@ class DocxMainPartBodyStructurePrinter
     if (pr.getTblOverlap() instanceof CTTblOverlap to)
       props.add("tbloverlap: " + to.getVal());
     if (pr.getTblpPr() instanceof CTTblPPr ppr)
-      props.add("tblppr: " + ppr);
+      props.add("tblppr: " + (byValue ? tablePositionDescr(ppr) : ppr));
     if (pr.getTblStyle() instanceof TblStyle s)
       props.add("tblstyle: " + s.getVal());
     if (pr.getTblStyleColBandSize() instanceof CTTblPrBase.TblStyleColBandSize s)
@@ -491,6 +1215,45 @@ class DocxMainPartBodyStructurePrinter
 
   }
 
+  // Value descriptions of the properties described by their identities in the printed descriptions, for
+  // nodeValueDescr.
+
+  private static String numPrDescr(@Nullable Object numId, @Nullable Object ilvl)
+  {
+    return "{ numid: " + numId + ", ilvl: " + ilvl + " }";
+  }
+
+  private static String tabStopDescr(CTTabStop t)
+  {
+    return "{ val: " + t.getVal() + ", pos: " + t.getPos() + ", leader: " + t.getLeader() + " }";
+  }
+
+  private static String widthDescr(@Nullable TblWidth w, boolean byValue)
+  {
+    return byValue && w != null ? "{ type: " + w.getType() + ", w: " + w.getW() + " }" : String.valueOf(w);
+  }
+
+  private static String tablePositionDescr(CTTblPPr p)
+  {
+    return "{ " +
+      "lefttext: " + p.getLeftFromText() + ", righttext: " + p.getRightFromText() + ", " +
+      "toptext: " + p.getTopFromText() + ", bottomtext: " + p.getBottomFromText() + ", " +
+      "vertanchor: " + p.getVertAnchor() + ", horzanchor: " + p.getHorzAnchor() + ", " +
+      "x: " + p.getTblpX() + " " + p.getTblpXSpec() + ", y: " + p.getTblpY() + " " + p.getTblpYSpec() +
+      " }";
+  }
+
+  // Revision session ids, which saving changes without the section changing.
+  private static final Pattern RSID_ATTRIBUTE = Pattern.compile(" w:rsid\\w*=\"[^\"]*\"");
+
+  /// A digest of the section properties' XML, leaving out revision session ids. Sections have too many properties to
+  /// describe, and are rare enough for marshalling them to cost little.
+  private static String sectPrDigestDescr(SectPr s)
+  {
+    String xml = RSID_ATTRIBUTE.matcher(XmlUtils.marshaltoString(s, true, false)).replaceAll("");
+    return String.format("{ digest: %016x }", Hashes.hashString(xml));
+  }
+
   private static String cellMarDescr(@Nullable CTTblCellMar m)
   {
     if (m == null)
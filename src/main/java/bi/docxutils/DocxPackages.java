@@ -0,0 +1,258 @@
+package bi.docxutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.openpackaging.contenttype.ContentTypeManager;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.io3.Load3;
+import org.docx4j.openpackaging.io3.stores.PartStore;
+import org.docx4j.openpackaging.packages.OpcPackage;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.CustomXmlDataStoragePart;
+import org.docx4j.openpackaging.parts.JaxbXmlPart;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.PartName;
+import org.docx4j.openpackaging.parts.XmlPart;
+import org.docx4j.openpackaging.parts.relationships.RelationshipsPart;
+import org.docx4j.relationships.Relationship;
+
+import static bi.util.Nullables.nonNull;
+
+/// Loads docx packages as OpcPackage.load does for zipped packages, but with the unzip and unmarshal steps timed
+/// as separate phases, and with only the parts a tool needs loaded at all.
+///
+/// OpcPackage.load reads every zip entry into memory up front, images, embedded objects and fonts included, and
+/// creates a part for every relationship in the package. Here the zip file stays open and each entry is read only
+/// when docx4j asks for it, which for binary parts is when their content is first used, and relationships not accepted
+/// by the tool's part filter get no part at all. A package loaded here must be closed with close() when the tool is
+/// done with it.
+///
+/// Load3 leaves JAXB parts to be unmarshalled when first used too, which would charge unmarshalling to the tool's
+/// traversal phase. So the JAXB parts loaded for any filter but ALL_PARTS, being the parts the tool uses, are
+/// unmarshalled in the unmarshal phase, in parallel as the parts are independent of each other. Tools loading all
+/// parts inspect them selectively and in parallel, so their parts are still unmarshalled when used.
+final class DocxPackages
+{
+  /// Load every part, for tools reporting on the package as a whole. Binary content is still read only if used.
+  static final Predicate<Relationship> ALL_PARTS = r -> true;
+
+  /// Load only the main document part, for tools reading just the body content.
+  static final Predicate<Relationship> MAIN_DOCUMENT_PART = r -> r.getType().endsWith("/officeDocument");
+
+  /// Load the story parts of the main document part, as well as the filters they're combined with.
+  static final Predicate<Relationship> STORY_PARTS = DocxPackages::isStoryRelationship;
+
+  /// Load the styles part, as well as the filters it's combined with.
+  static final Predicate<Relationship> STYLES_PART = r -> r.getType().endsWith("/styles");
+
+  private static final Set<String> STORY_RELATIONSHIP_TYPE_NAMES =
+    Set.of("header", "footer", "footnotes", "endnotes", "comments");
+
+  /// Whether the relationship is to a story part, one with content of its own outside of the main document's body:
+  /// a header, footer, footnotes, endnotes or comments part.
+  static boolean isStoryRelationship(Relationship r)
+  {
+    return STORY_RELATIONSHIP_TYPE_NAMES.contains(r.getType().substring(r.getType().lastIndexOf('/') + 1));
+  }
+
+  /// Load the package with parts for the relationships accepted by the filter, at all levels of the relationships
+  /// tree. Relationships not accepted stay in their relationships parts, but have no target part.
+  static OpcPackage load(File docxFile, Predicate<Relationship> partFilter, ToolStats stats) throws Docx4JException
+  {
+    ZipFilePartStore partStore;
+    try (var phase = stats.phase(ToolStats.Phase.UNZIP))
+    {
+      partStore = new ZipFilePartStore(docxFile, stats);
+    }
+
+    try (var phase = stats.phase(ToolStats.Phase.UNMARSHAL))
+    {
+      OpcPackage pkg = new FilteringLoad(partStore, partFilter).get();
+      pkg.setNew(false);
+      pkg.setName(docxFile.getName());
+      if (partFilter != ALL_PARTS)
+      {
+        List<JaxbXmlPart<?>> jaxbParts = new ArrayList<>();
+        for (Part part : pkg.getParts().getParts().values())
+        {
+          if (part instanceof JaxbXmlPart<?> jaxbPart)
+            jaxbParts.add(jaxbPart);
+        }
+        jaxbParts.parallelStream().forEach(JaxbXmlPart::getJaxbElement);
+        // docx4j logs unmarshalling errors and leaves the element null, which tools would only trip over later.
+        for (JaxbXmlPart<?> jaxbPart : jaxbParts)
+        {
+          if (jaxbPart.getJaxbElement() == null)
+            throw new Docx4JException("Could not unmarshal part " + jaxbPart.getPartName().getName() + " of " + docxFile);
+        }
+      }
+      return pkg;
+    }
+    catch (Docx4JException | RuntimeException e)
+    {
+      partStore.dispose();
+      throw e;
+    }
+  }
+
+  static WordprocessingMLPackage loadWordprocessing(File docxFile, Predicate<Relationship> partFilter, ToolStats stats)
+    throws Docx4JException
+  {
+    OpcPackage pkg = load(docxFile, partFilter, stats);
+    if (!(pkg instanceof WordprocessingMLPackage docx))
+    {
+      close(pkg);
+      throw new Docx4JException("Not a WordprocessingML package: " + docxFile);
+    }
+    return docx;
+  }
+
+  /// Close the package's zip file. Parts not yet read can't be read afterwards.
+  static void close(OpcPackage pkg)
+  {
+    if (pkg.getSourcePartStore() instanceof PartStore partStore)
+      partStore.dispose();
+  }
+
+  /// Load3 skipping the relationships the filter doesn't accept, and so the subtrees of parts below them.
+  private static final class FilteringLoad extends Load3
+  {
+    private final Predicate<Relationship> partFilter;
+
+    FilteringLoad(PartStore partStore, Predicate<Relationship> partFilter)
+    {
+      super(partStore);
+      this.partFilter = partFilter;
+    }
+
+    @Override
+    protected void getPart(OpcPackage pkg, RelationshipsPart rp, Relationship r, ContentTypeManager ctm)
+      throws Docx4JException, URISyntaxException
+    {
+      if (partFilter.test(r))
+        super.getPart(pkg, rp, r, ctm);
+    }
+  }
+
+  /// A read-only part store over the package's zip file, opening entries only when asked for them. The compressed
+  /// sizes of the entries read are counted in the stats. Parts may be read from several threads, as ZipFile allows.
+  private static final class ZipFilePartStore implements PartStore
+  {
+    private final ZipFile zip;
+    private final ToolStats stats;
+
+    ZipFilePartStore(File docxFile, ToolStats stats) throws Docx4JException
+    {
+      try
+      {
+        this.zip = new ZipFile(docxFile);
+      }
+      catch (IOException e)
+      {
+        throw new Docx4JException("Could not open " + docxFile + ": " + e.getMessage(), e);
+      }
+      this.stats = stats;
+    }
+
+    /// The entry's content, or null if there's no such entry as for ZipPartStore, which Load3 relies on for parts
+    /// without relationships though the unannotated PartStore interface doesn't say so.
+    ///
+    /// XML parts are read into memory, as ZipPartStore does, since JaxbXmlPart.unmarshal resets the stream to retry
+    /// with markup compatibility preprocessing when it meets content it doesn't know, and fails if it can't. Binary
+    /// parts are streamed from the zip file.
+    @Override
+    @SuppressWarnings("override.return")
+    public @Nullable InputStream loadPart(String partName) throws Docx4JException
+    {
+      if (!(zip.getEntry(partName) instanceof ZipEntry entry))
+        return null;
+      try
+      {
+        InputStream is = nonNull(zip.getInputStream(entry));
+        stats.addBytesRead(Math.max(entry.getCompressedSize(), 0));
+        if (!isXmlPartName(partName))
+          return is;
+        try (is)
+        {
+          return new ByteArrayInputStream(is.readAllBytes());
+        }
+      }
+      catch (IOException e)
+      {
+        throw new Docx4JException("Could not read part " + partName + " of " + zip.getName(), e);
+      }
+    }
+
+    private static boolean isXmlPartName(String partName)
+    {
+      return partName.endsWith(".xml") || partName.endsWith(".rels") || partName.endsWith(".vml");
+    }
+
+    @Override
+    public long getPartSize(String partName) throws Docx4JException
+    {
+      if (!(zip.getEntry(partName) instanceof ZipEntry entry))
+        throw new Docx4JException("No part " + partName + " in " + zip.getName());
+      return entry.getSize();
+    }
+
+    @Override
+    public void dispose()
+    {
+      try
+      {
+        zip.close();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void setSourcePartStore(PartStore partStore) { throw readOnly(); }
+
+    @Override
+    public void rename(PartName oldName, PartName newName) { throw readOnly(); }
+
+    @Override
+    public void setOutputStream(OutputStream os) { throw readOnly(); }
+
+    @Override
+    public void saveContentTypes(ContentTypeManager ctm) { throw readOnly(); }
+
+    @Override
+    public void saveJaxbXmlPart(JaxbXmlPart part) { throw readOnly(); }
+
+    @Override
+    public void saveCustomXmlDataStoragePart(CustomXmlDataStoragePart part) { throw readOnly(); }
+
+    @Override
+    public void saveXmlPart(XmlPart part) { throw readOnly(); }
+
+    @Override
+    public void saveBinaryPart(Part part) { throw readOnly(); }
+
+    @Override
+    public void finishSave() { throw readOnly(); }
+
+    private static UnsupportedOperationException readOnly()
+    {
+      return new UnsupportedOperationException("Packages loaded by DocxPackages are read-only.");
+    }
+  }
+
+  private DocxPackages() {}
+}
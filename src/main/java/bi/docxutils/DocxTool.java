@@ -0,0 +1,127 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.stream.Collectors;
+
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.OpcPackage;
+
+/// The single-document tools, for running many documents through in one JVM.
+enum DocxTool
+{
+  STRUCTURE("structure", "")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException
+    {
+      DocxMainPartBodyStructurePrinter.visitStructure(
+        docxFile, false, StructureSelector.ALL, new StructureTextWriter(bw), stats
+      );
+    }
+  },
+  STREAMING_STRUCTURE("streaming-structure", "")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException
+    {
+      DocxMainPartBodyStructurePrinter.visitStructure(
+        docxFile, true, StructureSelector.ALL, new StructureTextWriter(bw), stats
+      );
+    }
+  },
+  PLAIN_TEXT("plain-text", "-text")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException
+    {
+      TextExtractor.extract(docxFile, false, bw, stats);
+    }
+  },
+  MARKDOWN("markdown", "-markdown")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException
+    {
+      TextExtractor.extract(docxFile, true, bw, stats);
+    }
+  },
+  RELATIONSHIPS("relationships", "-relationships")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException
+    {
+      RelationshipsPrinter.writeRelationships(docxFile, bw, stats);
+    }
+  },
+  PARTS("parts", "-parts")
+  {
+    @Override
+    void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException
+    {
+      OpcPackage pkg = DocxPackages.load(docxFile, DocxPackages.ALL_PARTS, stats);
+      try
+      {
+        WordPartsPrinter.writeParts(pkg, true, bw, stats);
+      }
+      finally
+      {
+        DocxPackages.close(pkg);
+      }
+    }
+  };
+
+  final String commandName;
+  final String outputFileSuffix;
+
+  DocxTool(String commandName, String outputFileSuffix)
+  {
+    this.commandName = commandName;
+    this.outputFileSuffix = outputFileSuffix;
+  }
+
+  /// Write the tool's output for the document, recording stats for it as JFR events only.
+  final void write(File docxFile, BufferedWriter bw) throws IOException, Docx4JException
+  {
+    ToolStats stats = new ToolStats(commandName, docxFile.getPath(), false);
+    write(docxFile, bw, stats);
+    stats.finish();
+  }
+
+  abstract void write(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException, Docx4JException;
+
+  /// The zip entries whose content determines the tool's output for a document.
+  List<String> inputEntryNames(ZipFile zip) throws IOException
+  {
+    String mainPartName = DocxZip.mainDocumentPartName(zip);
+
+    return switch (this)
+    {
+      case STRUCTURE, STREAMING_STRUCTURE, PLAIN_TEXT, MARKDOWN ->
+        List.of("_rels/.rels", mainPartName, DocxZip.relationshipsPartName(mainPartName));
+      case RELATIONSHIPS ->
+        List.of("_rels/.rels", DocxZip.relationshipsPartName(mainPartName));
+      case PARTS ->
+        zip.stream().map(ZipEntry::getName).sorted().toList();
+    };
+  }
+
+  static DocxTool fromCommandName(String commandName)
+  {
+    for (DocxTool tool : values())
+      if (tool.commandName.equals(commandName))
+        return tool;
+
+    throw new IllegalArgumentException("Unknown tool '" + commandName + "', expected one of: " + commandNames());
+  }
+
+  static String commandNames()
+  {
+    return Arrays.stream(values()).map(t -> t.commandName).collect(Collectors.joining("|"));
+  }
+}
@@ -0,0 +1,69 @@
+package bi.docxutils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/// Thin client for DocxToolServer, taking the tool name, input file and optional output file, e.g.
+/// `DocxToolClient structure report.docx report.txt`. It loads no docx4j classes, so it starts in a fraction of the time
+/// of the tools themselves. Only these arguments are sent, so the tools run with their default options: options of
+/// the tool command lines such as --format or --stories aren't available, other than through the tools' variants
+/// such as streaming-structure.
+final class DocxToolClient
+{
+  public static void main(String[] args) throws IOException
+  {
+    if ((args.length != 2 && args.length != 3) || Arrays.stream(args).anyMatch(a -> a.startsWith("--")))
+      throw new RuntimeException(
+        "Expected 2 or 3 arguments, without options as tools run with their defaults: " +
+        "<tool> <docx-input-file> [output-file]"
+      );
+
+    String request = args[0] + " " + new File(args[1]).getAbsolutePath() + "\n";
+
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+         OutputStream out = args.length == 3
+           ? new BufferedOutputStream(new FileOutputStream(args[2]))
+           : System.out)
+    {
+      channel.connect(UnixDomainSocketAddress.of(DocxToolServer.defaultSocketFile()));
+      channel.write(UTF_8.encode(request));
+
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      byte[] buf = new byte[0];
+      while (true)
+      {
+        int frameLen = in.readInt();
+        if (frameLen == DocxToolServer.END_FRAME)
+          break;
+        if (frameLen == DocxToolServer.ERROR_FRAME)
+        {
+          out.flush();
+          ByteArrayOutputStream message = new ByteArrayOutputStream();
+          for (int len; (len = in.readInt()) != DocxToolServer.END_FRAME; )
+            message.write(in.readNBytes(len));
+          System.err.println(message.toString(UTF_8));
+          System.exit(1);
+        }
+
+        if (buf.length < frameLen)
+          buf = new byte[frameLen];
+        in.readFully(buf, 0, frameLen);
+        out.write(buf, 0, frameLen);
+      }
+      out.flush();
+    }
+  }
+
+  private DocxToolClient() {}
+}
@@ -0,0 +1,234 @@
+package bi.docxutils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.jaxb.Context;
+
+import bi.util.CommandArgs;
+
+/// Resident server keeping docx4j's JAXB context and the JIT-compiled tool code warm across requests, serving the
+/// single-document tools over a Unix domain socket which only the owning user can access. DocxToolClient is the
+/// matching client, running the tools with their default options.
+///
+/// The socket is created in a directory only the user may access, created if missing, so other users can't connect
+/// even while the socket file itself still has the permissions of the umask. A socket file in a directory others may
+/// access, such as the temp directory itself, is refused.
+///
+/// A request is one line: the tool command name, a space, and the absolute path of the docx file. The response is the
+/// tool's output as frames of a 4-byte length followed by that many bytes of UTF-8 text, ended by a zero length frame
+/// on success, or on failure by a length of -1 followed by the error message in the same frames, again ended by a zero
+/// length frame, so messages of any length get through. Requests are
+/// handled concurrently on virtual threads, with the number of documents being processed at once capped.
+final class DocxToolServer
+{
+  static final int END_FRAME = 0;
+  static final int ERROR_FRAME = -1;
+  private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+  public static void main(String[] args) throws IOException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("cache", "cache-max-mb"));
+    List<String> posArgs = cmdArgs.positional();
+
+    if (posArgs.size() > 2)
+      throw new RuntimeException(
+        "Expected 0 to 2 arguments: [--cache[=dir] [--cache-max-mb=n]] [socket-file] [max-parallel-documents]"
+      );
+
+    Path socketFile = posArgs.size() >= 1 ? Path.of(posArgs.get(0)) : defaultSocketFile();
+    int maxParallel = posArgs.size() == 2 ? Integer.parseInt(posArgs.get(1)) : Runtime.getRuntime().availableProcessors();
+
+    // Initialize the JAXB context now rather than on the first request.
+    System.err.println("Initialized JAXB context " + Context.jc.getClass().getName());
+
+    serve(socketFile, maxParallel, ResultCache.fromOptions(cmdArgs));
+  }
+
+  /// The socket file used by default by both the server and client, in a directory of the user's in the temp
+  /// directory, which may be set via environment variable DOCX_TOOL_SOCKET.
+  static Path defaultSocketFile()
+  {
+    @Nullable String socketFile = System.getenv("DOCX_TOOL_SOCKET");
+    return socketFile != null
+      ? Path.of(socketFile)
+      : Path.of(System.getProperty("java.io.tmpdir"), "docx-tool-" + System.getProperty("user.name"), "server.sock");
+  }
+
+  static void serve(Path socketFile, int maxParallel, @Nullable ResultCache cache) throws IOException
+  {
+    createPrivateSocketDirectory(socketFile.toAbsolutePath().getParent());
+    removeStaleSocketFile(socketFile);
+
+    Semaphore processingPermits = new Semaphore(maxParallel);
+
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+         ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+    {
+      server.bind(UnixDomainSocketAddress.of(socketFile));
+      Files.setPosixFilePermissions(socketFile, PosixFilePermissions.fromString("rw-------"));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> socketFile.toFile().delete()));
+
+      System.err.println("Listening on " + socketFile);
+
+      while (true)
+      {
+        SocketChannel channel = server.accept();
+        executor.submit(() -> handle(channel, processingPermits, cache));
+      }
+    }
+  }
+
+  /// Create the socket file's directory accessible only by the user, or check that the existing one is.
+  private static void createPrivateSocketDirectory(@Nullable Path dir) throws IOException
+  {
+    if (dir == null)
+      throw new IOException("The socket file must be in a directory.");
+
+    Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+    if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS))
+    {
+      Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+      return;
+    }
+
+    UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+      .lookupPrincipalByName(System.getProperty("user.name"));
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS) ||
+        !Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).equals(user) ||
+        !ownerOnly.containsAll(Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS)))
+      throw new IOException("Socket file directory " + dir + " must be a directory accessible only by its owner, " +
+                            System.getProperty("user.name") + ".");
+  }
+
+  private static void removeStaleSocketFile(Path socketFile) throws IOException
+  {
+    if (!Files.exists(socketFile, LinkOption.NOFOLLOW_LINKS))
+      return;
+
+    // Only remove what looks like a socket left by an earlier server, never a regular file given by mistake.
+    if (!Files.readAttributes(socketFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther())
+      throw new IOException("Socket file path " + socketFile + " exists and is not a socket.");
+
+    Files.delete(socketFile);
+  }
+
+  private static void handle(SocketChannel channel, Semaphore processingPermits, @Nullable ResultCache cache)
+  {
+    try (channel;
+         DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel)))
+    {
+      try
+      {
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), UTF_8));
+        @Nullable String requestLine = in.readLine();
+        int sepIx = requestLine != null ? requestLine.indexOf(' ') : -1;
+        if (requestLine == null || sepIx == -1)
+          throw new IllegalArgumentException("Expected request line: <" + DocxTool.commandNames() + "> <docx-file>");
+
+        DocxTool tool = DocxTool.fromCommandName(requestLine.substring(0, sepIx));
+        File docxFile = new File(requestLine.substring(sepIx + 1));
+
+        processingPermits.acquire();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FramingOutputStream(out), UTF_8)))
+        {
+          if (cache != null)
+            cache.write(tool, docxFile, bw);
+          else
+            tool.write(docxFile, bw);
+        }
+        finally { processingPermits.release(); }
+
+        out.writeInt(END_FRAME);
+      }
+      catch (Exception e)
+      {
+        out.writeInt(ERROR_FRAME);
+        try (OutputStream message = new FramingOutputStream(out))
+        {
+          message.write(e.toString().getBytes(UTF_8));
+        }
+        out.writeInt(END_FRAME);
+      }
+    }
+    catch (IOException e) // Client went away, nothing more to be done for it.
+    {
+      System.err.println("Error responding to client: " + e);
+    }
+  }
+
+  /// Buffers output into length-prefixed frames, without ending the response when closed.
+  private static final class FramingOutputStream extends OutputStream
+  {
+    private final DataOutputStream out;
+    private final byte[] buf = new byte[MAX_FRAME_SIZE];
+    private int len;
+
+    FramingOutputStream(DataOutputStream out) { this.out = out; }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      if (len == buf.length)
+        flush();
+      buf[len++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int n) throws IOException
+    {
+      while (n > 0)
+      {
+        if (len == buf.length)
+          flush();
+        int chunk = Math.min(n, buf.length - len);
+        System.arraycopy(b, off, buf, len, chunk);
+        len += chunk;
+        off += chunk;
+        n -= chunk;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      if (len > 0)
+      {
+        out.writeInt(len);
+        out.write(buf, 0, len);
+        len = 0;
+      }
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException { flush(); }
+  }
+
+  private DocxToolServer() {}
+}
@@ -0,0 +1,115 @@
+package bi.docxutils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static bi.util.Nullables.nonNull;
+
+/// Direct access to the zip entries of a docx package, for the streaming paths which read individual parts without
+/// loading the package through docx4j.
+final class DocxZip
+{
+  static final String DEFAULT_MAIN_DOCUMENT_PART_NAME = "word/document.xml";
+
+  private static final XMLInputFactory xmlInputFactory = makeXmlInputFactory();
+
+  /// Find the main document part's zip entry name from the package relationships, defaulting to word/document.xml.
+  static String mainDocumentPartName(ZipFile zip) throws IOException
+  {
+    if (zip.getEntry("_rels/.rels") == null)
+      return DEFAULT_MAIN_DOCUMENT_PART_NAME;
+
+    try (InputStream is = openEntry(zip, "_rels/.rels"))
+    {
+      XMLStreamReader r = xmlReader(is);
+      try
+      {
+        while (r.hasNext())
+        {
+          if (r.next() == XMLStreamConstants.START_ELEMENT && r.getLocalName().equals("Relationship") &&
+              attribute(r, "Type") instanceof String type && type.endsWith("/officeDocument") &&
+              attribute(r, "Target") instanceof String target)
+          {
+            return target.startsWith("/") ? target.substring(1) : target;
+          }
+        }
+      }
+      finally { r.close(); }
+    }
+    catch (XMLStreamException e)
+    {
+      throw new IOException("Could not read package relationships: " + e.getMessage(), e);
+    }
+
+    return DEFAULT_MAIN_DOCUMENT_PART_NAME;
+  }
+
+  /// The zip entry name of the relationships part for the given part, e.g. word/_rels/document.xml.rels for
+  /// word/document.xml.
+  static String relationshipsPartName(String partName)
+  {
+    int lastSlash = partName.lastIndexOf('/');
+    return partName.substring(0, lastSlash + 1) + "_rels/" + partName.substring(lastSlash + 1) + ".rels";
+  }
+
+  static InputStream openEntry(ZipFile zip, String entryName) throws IOException
+  {
+    @Nullable ZipEntry entry = zip.getEntry(entryName);
+    if (entry == null)
+      throw new FileNotFoundException("No entry '" + entryName + "' in " + zip.getName());
+    return nonNull(zip.getInputStream(entry));
+  }
+
+  /// The compressed size of the entry, or 0 if it's absent or its size is unknown.
+  static long compressedSize(ZipFile zip, String entryName)
+  {
+    return zip.getEntry(entryName) instanceof ZipEntry entry ? Math.max(entry.getCompressedSize(), 0) : 0;
+  }
+
+  static XMLStreamReader xmlReader(InputStream is) throws XMLStreamException
+  {
+    return xmlInputFactory.createXMLStreamReader(is);
+  }
+
+  /// The value of the unqualified attribute of the current start element with the given name, if present.
+  static @Nullable String attribute(XMLStreamReader r, String localName)
+  {
+    for (int i = 0; i < r.getAttributeCount(); ++i)
+    {
+      String ns = r.getAttributeNamespace(i);
+      if ((ns == null || ns.isEmpty()) && r.getAttributeLocalName(i).equals(localName))
+        return r.getAttributeValue(i);
+    }
+    return null;
+  }
+
+  /// The value of the attribute of the current start element with the given namespace and local name, if present.
+  static @Nullable String attribute(XMLStreamReader r, String namespace, String localName)
+  {
+    for (int i = 0; i < r.getAttributeCount(); ++i)
+    {
+      if (namespace.equals(r.getAttributeNamespace(i)) && r.getAttributeLocalName(i).equals(localName))
+        return r.getAttributeValue(i);
+    }
+    return null;
+  }
+
+  private static XMLInputFactory makeXmlInputFactory()
+  {
+    XMLInputFactory f = XMLInputFactory.newFactory();
+    f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return f;
+  }
+
+  private DocxZip() {}
+}
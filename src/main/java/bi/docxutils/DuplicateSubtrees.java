@@ -0,0 +1,291 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.wml.Text;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// Finds subtrees of the body structure duplicated across a corpus of documents, such as boilerplate sections pasted
+/// into many reports, by their fingerprints from SubtreeFingerprinter, without comparing any text.
+///
+///     collect [--max-parallel=n] [--min-nodes=n] <input-dir|input-list-file> <table-file>
+///     report [--min-documents=n] [--limit=n] <table-file>
+///
+/// Collecting traverses the documents with the streaming traversal, several at a time, and counts the fingerprints
+/// of their subtrees of at least min-nodes nodes (8 by default) in a FingerprintTable, an on-disk hash table, so
+/// the corpus' fingerprints needn't fit in memory. Documents already in the table are skipped, so a table can be
+/// collected into again as the corpus grows. The table is updated in a copy that replaces it when collecting is
+/// done, so a failed collect leaves it as it was.
+///
+/// The report lists the subtrees in at least min-documents documents (2 by default), most widespread and then
+/// largest first, up to limit (100 by default). A subtree is left out when its parent, as at its first occurrence,
+/// is in as many documents, as it's then only duplicated as part of the parent, which is listed instead. Each is
+/// shown by its root's type and first text, and where it first occurred.
+final class DuplicateSubtrees
+{
+  private static final int DEFAULT_MIN_NODES = 8;
+  private static final int DEFAULT_MIN_DOCUMENTS = 2;
+  private static final int DEFAULT_LIMIT = 100;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("max-parallel", "min-nodes", "min-documents", "limit"));
+    List<String> posArgs = cmdArgs.positional();
+    String command = posArgs.isEmpty() ? "" : posArgs.get(0);
+
+    if (command.equals("collect") && posArgs.size() == 3)
+    {
+      int maxParallel = cmdArgs.value("max-parallel") instanceof String n
+        ? Integer.parseInt(n)
+        : Runtime.getRuntime().availableProcessors();
+      int minNodes = cmdArgs.value("min-nodes") instanceof String n ? Integer.parseInt(n) : DEFAULT_MIN_NODES;
+      collect(DocxBatchRunner.inputFiles(Path.of(posArgs.get(1))), maxParallel, minNodes, Path.of(posArgs.get(2)));
+    }
+    else if (command.equals("report") && posArgs.size() == 2)
+    {
+      int minDocuments =
+        cmdArgs.value("min-documents") instanceof String n ? Integer.parseInt(n) : DEFAULT_MIN_DOCUMENTS;
+      int limit = cmdArgs.value("limit") instanceof String n ? Integer.parseInt(n) : DEFAULT_LIMIT;
+      try (FingerprintTable table = FingerprintTable.open(Path.of(posArgs.get(1)));
+           BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out)))
+      {
+        report(table, minDocuments, limit, bw);
+      }
+    }
+    else
+      throw new RuntimeException(
+        "Expected arguments: collect [--max-parallel=n] [--min-nodes=n] <input-dir|input-list-file> <table-file>\n" +
+        "                 or report [--min-documents=n] [--limit=n] <table-file>"
+      );
+  }
+
+  /// Add the fingerprints of the documents' subtrees to the table file, creating it if it doesn't exist, traversing
+  /// up to maxParallel documents at a time. Documents failing to load are reported and left out of the table.
+  static void collect(List<Path> docxFiles, int maxParallel, int minNodes, Path tableFile)
+    throws IOException, InterruptedException
+  {
+    long startNanos = System.nanoTime();
+    Path workingFile = Files.createTempFile(nonNull(tableFile.toAbsolutePath().getParent()), "fingerprints", ".tmp");
+    try
+    {
+      if (Files.exists(tableFile))
+        Files.copy(tableFile, workingFile, StandardCopyOption.REPLACE_EXISTING);
+      else
+        Files.delete(workingFile);
+
+      int collected = 0, failed = 0, skipped = 0;
+      try (FingerprintTable table = FingerprintTable.open(workingFile);
+           ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+      {
+        Set<String> tableDocuments = new HashSet<>(table.documents());
+        List<Path> newFiles = docxFiles.stream().filter(f -> !tableDocuments.contains(f.toString())).toList();
+        skipped = docxFiles.size() - newFiles.size();
+
+        // Traversals are submitted at most a window ahead of the one being added, so that the subtrees held, of
+        // documents traversed but not yet added, are bounded however large the corpus.
+        Semaphore traversalPermits = new Semaphore(maxParallel);
+        int maxTraversalsInFlight = 2 * maxParallel;
+        Deque<Future<DocumentSubtrees>> traversalsInFlight = new ArrayDeque<>();
+        int nextToSubmit = 0;
+
+        // Added in input order, so the table's document numbers and first occurrences don't depend on timing.
+        for (int d = 0; d < newFiles.size(); ++d)
+        {
+          while (nextToSubmit < newFiles.size() && traversalsInFlight.size() < maxTraversalsInFlight)
+          {
+            Path docxFile = newFiles.get(nextToSubmit++);
+            traversalsInFlight.add(executor.submit(() ->
+            {
+              traversalPermits.acquire();
+              try
+              {
+                DocumentSubtrees subtrees = new DocumentSubtrees(minNodes);
+                DocxMainPartBodyStructurePrinter.visitStructure(docxFile.toFile(), true, subtrees.visitor());
+                return subtrees;
+              }
+              finally { traversalPermits.release(); }
+            }));
+          }
+
+          try
+          {
+            DocumentSubtrees subtrees = traversalsInFlight.remove().get();
+            subtrees.addTo(table, table.addDocument(newFiles.get(d).toString()));
+            ++collected;
+          }
+          catch (ExecutionException e)
+          {
+            System.err.println("FAILED " + newFiles.get(d) + ": " + e.getCause());
+            ++failed;
+          }
+        }
+
+        System.out.printf(
+          "%d documents: %d collected, %d failed, %d already in the table; %d fingerprints of %d documents in the " +
+          "table; %d ms elapsed%n",
+          docxFiles.size(), collected, failed, skipped, table.size(), table.documents().size(),
+          (System.nanoTime() - startNanos) / 1_000_000
+        );
+      }
+
+      Files.move(workingFile, tableFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+      Files.deleteIfExists(workingFile);
+    }
+  }
+
+  /// Write the subtrees of the table in at least minDocuments documents, up to limit of them, leaving out those only
+  /// duplicated as part of their parents.
+  static void report(FingerprintTable table, int minDocuments, int limit, Writer w) throws IOException
+  {
+    List<FingerprintTable.Entry> duplicated = new ArrayList<>();
+    for (FingerprintTable.Entry e : table.entries(minDocuments))
+    {
+      boolean onlyInParent = e.parentFingerprint() != 0 &&
+        table.get(e.parentFingerprint()) instanceof FingerprintTable.Entry parent &&
+        parent.documentCount() >= e.documentCount();
+      if (!onlyInParent)
+        duplicated.add(e);
+    }
+    duplicated.sort(
+      Comparator.comparingInt(FingerprintTable.Entry::documentCount).reversed()
+        .thenComparing(Comparator.comparingInt(FingerprintTable.Entry::nodeCount).reversed())
+        .thenComparingLong(FingerprintTable.Entry::fingerprint)
+    );
+
+    w.write(
+      duplicated.size() + " subtrees in " + minDocuments + " or more of " + table.documents().size() +
+      " documents, not counting those only duplicated as part of their parents.\n"
+    );
+    for (FingerprintTable.Entry e : duplicated.subList(0, Math.min(limit, duplicated.size())))
+    {
+      w.write(String.format(
+        "%n%d documents, %d occurrences, %d nodes: %s [%016x]%n  first in %s, body item %d%n",
+        e.documentCount(), e.occurrences(), e.nodeCount(), e.description(), e.fingerprint(),
+        table.documents().get(e.firstDocument()), e.firstBodyItem()
+      ));
+    }
+  }
+
+  /// The fingerprints of a document's subtrees of at least minNodes nodes, with their parents' fingerprints, node
+  /// counts, body items and descriptions, as parallel arrays in the order the subtrees end.
+  private static final class DocumentSubtrees implements SubtreeFingerprinter.Sink
+  {
+    private final int minNodes;
+
+    private long[] fingerprints = new long[256];
+    private long[] parentFingerprints = new long[256];
+    private int[] nodeCounts = new int[256];
+    private int[] bodyItems = new int[256];
+    private final List<String> descriptions = new ArrayList<>();
+    private int count;
+
+    // Subtrees whose parents haven't ended yet, by index, with their depths.
+    private int[] pending = new int[64];
+    private int[] pendingDepths = new int[64];
+    private int pendingCount;
+
+    // The first text value in each open node's subtree, innermost last.
+    private final List<@Nullable String> openFirstTexts = new ArrayList<>();
+    private int bodyItem = -1;
+
+    DocumentSubtrees(int minNodes)
+    {
+      this.minNodes = minNodes;
+    }
+
+    /// The visitor collecting the subtrees of the nodes visited.
+    StructureVisitor visitor()
+    {
+      SubtreeFingerprinter fingerprinter = new SubtreeFingerprinter(this);
+      return new StructureVisitor()
+      {
+        @Override
+        public void startNode(Object node, int depth)
+        {
+          if (depth == 0)
+            ++bodyItem;
+          openFirstTexts.add(null);
+          if (node instanceof Text t && t.getValue() instanceof String value && !value.isBlank())
+          {
+            // Open nodes having a first text already are the outer ones.
+            for (int i = openFirstTexts.size() - 1; i >= 0 && openFirstTexts.get(i) == null; --i)
+              openFirstTexts.set(i, value.strip());
+          }
+          fingerprinter.startNode(node, depth);
+        }
+
+        @Override
+        public void endNode(Object node, int depth) throws IOException
+        {
+          fingerprinter.endNode(node, depth);
+          openFirstTexts.remove(openFirstTexts.size() - 1);
+        }
+      };
+    }
+
+    @Override
+    public void subtree(Object node, int depth, long fingerprint, int nodeCount)
+    {
+      if (nodeCount < minNodes)
+        return;
+
+      // The pending deeper subtrees are this one's descendants, those of earlier siblings having been taken by them.
+      while (pendingCount > 0 && pendingDepths[pendingCount - 1] > depth)
+        parentFingerprints[pending[--pendingCount]] = fingerprint;
+
+      if (count == fingerprints.length)
+      {
+        fingerprints = Arrays.copyOf(fingerprints, 2 * count);
+        parentFingerprints = Arrays.copyOf(parentFingerprints, 2 * count);
+        nodeCounts = Arrays.copyOf(nodeCounts, 2 * count);
+        bodyItems = Arrays.copyOf(bodyItems, 2 * count);
+      }
+      fingerprints[count] = fingerprint;
+      nodeCounts[count] = nodeCount;
+      bodyItems[count] = bodyItem;
+      String firstText = openFirstTexts.get(openFirstTexts.size() - 1);
+      descriptions.add(node.getClass().getSimpleName() + (firstText != null ? " \"" + firstText + "\"" : ""));
+
+      if (pendingCount == pending.length)
+      {
+        pending = Arrays.copyOf(pending, 2 * pendingCount);
+        pendingDepths = Arrays.copyOf(pendingDepths, 2 * pendingCount);
+      }
+      pending[pendingCount] = count;
+      pendingDepths[pendingCount++] = depth;
+      ++count;
+    }
+
+    void addTo(FingerprintTable table, int document) throws IOException
+    {
+      for (int i = 0; i < count; ++i)
+        table.add(fingerprints[i], parentFingerprints[i], nodeCounts[i], document, bodyItems[i], nonNull(descriptions.get(i)));
+    }
+  }
+}
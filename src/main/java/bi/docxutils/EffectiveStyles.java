@@ -0,0 +1,170 @@
+package bi.docxutils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.model.styles.StyleUtil;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.WordprocessingML.StyleDefinitionsPart;
+import org.docx4j.wml.DocDefaults;
+import org.docx4j.wml.PPr;
+import org.docx4j.wml.PPrBase.PStyle;
+import org.docx4j.wml.RPr;
+import org.docx4j.wml.RStyle;
+import org.docx4j.wml.Style;
+import org.docx4j.wml.Style.BasedOn;
+import org.docx4j.wml.Styles;
+
+/// The effective paragraph and run properties of a package's content, resolved from, in increasing precedence, the
+/// document defaults, the paragraph style's basedOn chain, the character style's basedOn chain and direct formatting.
+/// Paragraphs without a style get the default paragraph style, and runs without one the default character style.
+/// Properties are merged with docx4j's StyleUtil, so toggle properties such as bold are plain overrides.
+///
+/// The styles' properties are resolved once per package: for each paragraph style with the defaults, and for each
+/// combination of paragraph and character style. Resolving a node's properties then takes a copy of the cached
+/// properties and the direct formatting applied to it, whatever the depth of the style chains, so resolving all of a
+/// document's properties is linear in its size. Instances can be used by parallel traversals.
+final class EffectiveStyles
+{
+  private final Map<String, Style> stylesById = new HashMap<>();
+  private final String defaultParagraphStyleId;
+  private final String defaultCharacterStyleId;
+  private final @Nullable PPr defaultPPr;
+  private final @Nullable RPr defaultRPr;
+
+  // Keyed by style id, "" for none. Never modified once cached, merges apply them to fresh objects.
+  private final Map<String, PPr> paragraphStylePPrs = new ConcurrentHashMap<>();
+  private final Map<StylePair, RPr> stylePairRPrs = new ConcurrentHashMap<>();
+
+  private record StylePair(String paragraphStyleId, String characterStyleId) {}
+
+  private EffectiveStyles(@Nullable Styles styles)
+  {
+    String defaultParagraphStyleId = "", defaultCharacterStyleId = "";
+    if (styles != null)
+    {
+      for (Style s : styles.getStyle())
+      {
+        if (!(s.getStyleId() instanceof String id))
+          continue;
+        stylesById.put(id, s);
+        if (s.isDefault() && "paragraph".equals(s.getType()))
+          defaultParagraphStyleId = id;
+        else if (s.isDefault() && "character".equals(s.getType()))
+          defaultCharacterStyleId = id;
+      }
+    }
+    this.defaultParagraphStyleId = defaultParagraphStyleId;
+    this.defaultCharacterStyleId = defaultCharacterStyleId;
+
+    @Nullable DocDefaults docDefaults = styles != null ? styles.getDocDefaults() : null;
+    this.defaultPPr = docDefaults != null && docDefaults.getPPrDefault() instanceof DocDefaults.PPrDefault d
+      ? d.getPPr() : null;
+    this.defaultRPr = docDefaults != null && docDefaults.getRPrDefault() instanceof DocDefaults.RPrDefault d
+      ? d.getRPr() : null;
+  }
+
+  /// The resolver for the package's styles part, which resolves to the direct formatting if there is none.
+  static EffectiveStyles of(WordprocessingMLPackage docx)
+  {
+    return new EffectiveStyles(
+      docx.getMainDocumentPart().getStyleDefinitionsPart() instanceof StyleDefinitionsPart sdp
+        ? sdp.getJaxbElement() : null
+    );
+  }
+
+  /// The effective properties of a paragraph with the given direct properties.
+  PPr paragraphProperties(@Nullable PPr direct)
+  {
+    return apply(direct, copy(paragraphStylePPr(paragraphStyleId(direct))));
+  }
+
+  /// The effective properties of a run with the given direct properties, in a paragraph with the given direct
+  /// properties.
+  RPr runProperties(@Nullable PPr paragraphDirect, @Nullable RPr direct)
+  {
+    String characterStyleId =
+      direct != null && direct.getRStyle() instanceof RStyle s && s.getVal() instanceof String id
+        ? id : defaultCharacterStyleId;
+    StylePair styles = new StylePair(paragraphStyleId(paragraphDirect), characterStyleId);
+    return apply(direct, copy(stylePairRPr(styles)));
+  }
+
+  private String paragraphStyleId(@Nullable PPr direct)
+  {
+    return direct != null && direct.getPStyle() instanceof PStyle s && s.getVal() instanceof String id
+      ? id : defaultParagraphStyleId;
+  }
+
+  // Computed outside of the maps' update methods, which mustn't be reentered. Concurrent misses just compute the same
+  // properties twice.
+
+  private PPr paragraphStylePPr(String styleId)
+  {
+    @Nullable PPr res = paragraphStylePPrs.get(styleId);
+    if (res == null)
+    {
+      res = copy(defaultPPr);
+      for (Style s : chain(styleId))
+        res = apply(s.getPPr(), res);
+      paragraphStylePPrs.put(styleId, res);
+    }
+    return res;
+  }
+
+  private RPr stylePairRPr(StylePair styles)
+  {
+    @Nullable RPr res = stylePairRPrs.get(styles);
+    if (res == null)
+    {
+      res = copy(defaultRPr);
+      for (Style s : chain(styles.paragraphStyleId()))
+        res = apply(s.getRPr(), res);
+      for (Style s : chain(styles.characterStyleId()))
+        res = apply(s.getRPr(), res);
+      stylePairRPrs.put(styles, res);
+    }
+    return res;
+  }
+
+  /// The style and the styles it's based on, root first, ending early at a missing style or a cycle.
+  private Deque<Style> chain(String styleId)
+  {
+    Deque<Style> res = new ArrayDeque<>();
+    Set<String> seen = new HashSet<>();
+    for (@Nullable String id = styleId;
+         id != null && seen.add(id) && stylesById.get(id) instanceof Style s;
+         id = s.getBasedOn() instanceof BasedOn b ? b.getVal() : null)
+      res.push(s);
+    return res;
+  }
+
+  // StyleUtil.apply fills in the destination, creating its nested property objects as needed, so applying properties
+  // to a fresh object copies them.
+
+  private static PPr copy(@Nullable PPr pr)
+  {
+    return apply(pr, new PPr());
+  }
+
+  private static RPr copy(@Nullable RPr pr)
+  {
+    return apply(pr, new RPr());
+  }
+
+  private static PPr apply(@Nullable PPr source, PPr dest)
+  {
+    return source != null ? StyleUtil.apply(source, dest) : dest;
+  }
+
+  private static RPr apply(@Nullable RPr source, RPr dest)
+  {
+    return source != null ? StyleUtil.apply(source, dest) : dest;
+  }
+}
@@ -0,0 +1,343 @@
+package bi.docxutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/// An on-disk open addressing hash table of subtree fingerprints, counting each fingerprint's occurrences and the
+/// documents it occurs in across a corpus, for finding duplicated sections without holding the corpus' subtrees in
+/// memory. The table's slots are memory mapped, so lookups and updates are memory accesses left to the OS to page,
+/// and the table can be far larger than the heap.
+///
+/// Slots are found by linear probing from the fingerprint's low bits, the fingerprints being hashes already. The
+/// table doubles, rehashing into a new file, when over half full. The format, with big-endian numbers, is
+///
+///     header      "DXF" version, slot count bits (int), used slot count (long), document count (int), padded to
+///                 64 bytes
+///     slots       per slot: fingerprint, parent fingerprint (longs), node count, occurrences, document count,
+///                 last document, first document, first body item (ints), description (UTF-8, zero padded)
+///     documents   the documents' paths, in document number order, as by DataOutputStream.writeUTF
+///
+/// A fingerprint of 0 marks an empty slot, so a subtree hashing to 0 is stored as 1. The parent fingerprint is that
+/// of the subtree's first occurrence, 0 for top level ones. The documents section is rewritten on close(). Tables of
+/// other versions, whose fingerprints may have been computed differently, are rejected.
+final class FingerprintTable implements Closeable
+{
+  private static final byte[] MAGIC = { 'D', 'X', 'F', 2 };
+  private static final int HEADER_SIZE = 64;
+  static final int SLOT_SIZE = 128;
+  static final int DESCRIPTION_SIZE = SLOT_SIZE - 40;
+  private static final int SEGMENT_SLOT_BITS = 23; // 1 GiB mapped segments
+  private static final int INITIAL_SLOT_BITS = 16;
+
+  /// A slot's content.
+  record Entry(
+    long fingerprint,
+    long parentFingerprint,
+    int nodeCount,
+    int occurrences,
+    int documentCount,
+    int firstDocument,
+    int firstBodyItem,
+    String description
+  ) {}
+
+  private final Path file;
+  private FileChannel channel;
+  private int slotBits;
+  private MappedByteBuffer[] segments;
+  private long usedSlots;
+  private final List<String> documents;
+
+  private FingerprintTable(Path file, FileChannel channel, int slotBits, long usedSlots, List<String> documents)
+    throws IOException
+  {
+    this.file = file;
+    this.channel = channel;
+    this.slotBits = slotBits;
+    this.segments = map(channel, slotBits);
+    this.usedSlots = usedSlots;
+    this.documents = documents;
+  }
+
+  /// Open the table in the file for reading and updating, creating an empty one if the file doesn't exist.
+  static FingerprintTable open(Path file) throws IOException
+  {
+    if (!Files.exists(file))
+    {
+      FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+      );
+      return new FingerprintTable(file, channel, INITIAL_SLOT_BITS, 0, new ArrayList<>());
+    }
+
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header, header.position()) > 0) {}
+      header.flip();
+      byte[] magic = new byte[MAGIC.length];
+      if (header.remaining() < HEADER_SIZE || !Arrays.equals(magic(header, magic), MAGIC))
+        throw new IOException("Not a fingerprint table file of this version: " + file);
+      int slotBits = header.getInt();
+      long usedSlots = header.getLong();
+      int documentCount = header.getInt();
+
+      List<String> documents = new ArrayList<>(documentCount);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Channels.newInputStream(channel.position(HEADER_SIZE + ((long)SLOT_SIZE << slotBits)))
+      ));
+      for (int i = 0; i < documentCount; ++i)
+        documents.add(in.readUTF());
+
+      return new FingerprintTable(file, channel, slotBits, usedSlots, documents);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /// Add a document to the table, returning its number for add().
+  int addDocument(String path)
+  {
+    documents.add(path);
+    return documents.size() - 1;
+  }
+
+  /// The paths of the documents added, by document number.
+  List<String> documents()
+  {
+    return documents;
+  }
+
+  long size()
+  {
+    return usedSlots;
+  }
+
+  /// Count an occurrence of the subtree in the document. Documents must be added in order, all of a document's
+  /// subtrees before the next document's. The other values are kept from the first occurrence.
+  void add(
+      long fingerprint,
+      long parentFingerprint,
+      int nodeCount,
+      int document,
+      int bodyItem,
+      String description
+    )
+    throws IOException
+  {
+    if (fingerprint == 0)
+      fingerprint = 1;
+    if (2 * (usedSlots + 1) > 1L << slotBits)
+      grow();
+
+    long slot = find(fingerprint);
+    ByteBuffer b = segments[(int)(slot >>> SEGMENT_SLOT_BITS)];
+    int offset = slotOffset(slot);
+
+    if (b.getLong(offset) == 0)
+    {
+      b.putLong(offset, fingerprint);
+      b.putLong(offset + 8, parentFingerprint);
+      b.putInt(offset + 16, nodeCount);
+      b.putInt(offset + 20, 1);
+      b.putInt(offset + 24, 1);
+      b.putInt(offset + 28, document);
+      b.putInt(offset + 32, document);
+      b.putInt(offset + 36, bodyItem);
+      b.put(offset + 40, truncatedUtf8(description));
+      ++usedSlots;
+    }
+    else
+    {
+      b.putInt(offset + 20, b.getInt(offset + 20) + 1);
+      if (b.getInt(offset + 28) != document)
+      {
+        b.putInt(offset + 24, b.getInt(offset + 24) + 1);
+        b.putInt(offset + 28, document);
+      }
+    }
+  }
+
+  /// The fingerprint's entry, or null if it hasn't been added.
+  @Nullable Entry get(long fingerprint)
+  {
+    Entry e = entry(find(fingerprint == 0 ? 1 : fingerprint));
+    return e.fingerprint() != 0 ? e : null;
+  }
+
+  /// The entries of fingerprints occurring in at least the number of documents, in slot order, which is as good as
+  /// random.
+  List<Entry> entries(int minDocuments)
+  {
+    List<Entry> res = new ArrayList<>();
+    for (long slot = 0; slot < 1L << slotBits; ++slot)
+    {
+      ByteBuffer b = segments[(int)(slot >>> SEGMENT_SLOT_BITS)];
+      int offset = slotOffset(slot);
+      if (b.getLong(offset) != 0 && b.getInt(offset + 24) >= minDocuments)
+        res.add(entry(slot));
+    }
+    return res;
+  }
+
+  /// Write the header and documents and close the file.
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      long documentsOffset = HEADER_SIZE + ((long)SLOT_SIZE << slotBits);
+      channel.truncate(documentsOffset);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Channels.newOutputStream(channel.position(documentsOffset))
+      ));
+      for (String document : documents)
+        out.writeUTF(document);
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.put(MAGIC).putInt(slotBits).putLong(usedSlots).putInt(documents.size());
+      header.clear();
+      channel.write(header, 0);
+
+      for (MappedByteBuffer segment : segments)
+        segment.force();
+      channel.force(true);
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  private Entry entry(long slot)
+  {
+    ByteBuffer b = segments[(int)(slot >>> SEGMENT_SLOT_BITS)];
+    int offset = slotOffset(slot);
+    byte[] description = new byte[DESCRIPTION_SIZE];
+    b.get(offset + 40, description);
+    int length = 0;
+    while (length < description.length && description[length] != 0)
+      ++length;
+    return new Entry(
+      b.getLong(offset), b.getLong(offset + 8), b.getInt(offset + 16), b.getInt(offset + 20), b.getInt(offset + 24),
+      b.getInt(offset + 32), b.getInt(offset + 36), new String(description, 0, length, UTF_8)
+    );
+  }
+
+  /// The slot holding the fingerprint, or the empty slot where it would go.
+  private long find(long fingerprint)
+  {
+    long mask = (1L << slotBits) - 1;
+    for (long slot = fingerprint & mask; ; slot = (slot + 1) & mask)
+    {
+      long stored = segments[(int)(slot >>> SEGMENT_SLOT_BITS)].getLong(slotOffset(slot));
+      if (stored == fingerprint || stored == 0)
+        return slot;
+    }
+  }
+
+  /// Double the slot count, rehashing the entries into a new file which then replaces the table's.
+  private void grow() throws IOException
+  {
+    Path newFile = Path.of(file + ".grow");
+    int newSlotBits = slotBits + 1;
+    FileChannel newChannel = FileChannel.open(
+      newFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+      StandardOpenOption.WRITE
+    );
+    try
+    {
+      MappedByteBuffer[] newSegments = map(newChannel, newSlotBits);
+      long newMask = (1L << newSlotBits) - 1;
+      byte[] slotBytes = new byte[SLOT_SIZE];
+
+      for (long slot = 0; slot < 1L << slotBits; ++slot)
+      {
+        ByteBuffer b = segments[(int)(slot >>> SEGMENT_SLOT_BITS)];
+        long fingerprint = b.getLong(slotOffset(slot));
+        if (fingerprint == 0)
+          continue;
+        b.get(slotOffset(slot), slotBytes);
+
+        long newSlot = fingerprint & newMask;
+        while (newSegments[(int)(newSlot >>> SEGMENT_SLOT_BITS)].getLong(slotOffset(newSlot)) != 0)
+          newSlot = (newSlot + 1) & newMask;
+        newSegments[(int)(newSlot >>> SEGMENT_SLOT_BITS)].put(slotOffset(newSlot), slotBytes);
+      }
+
+      channel.close();
+      Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      channel = newChannel;
+      segments = newSegments;
+      slotBits = newSlotBits;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      newChannel.close();
+      Files.deleteIfExists(newFile);
+      throw e;
+    }
+  }
+
+  /// Map the slots of a table with the slot count, extending the file as needed, in segments of at most 1 GiB.
+  private static MappedByteBuffer[] map(FileChannel channel, int slotBits) throws IOException
+  {
+    long slotCount = 1L << slotBits;
+    long segmentSlots = 1L << SEGMENT_SLOT_BITS;
+    MappedByteBuffer[] segments = new MappedByteBuffer[(int)((slotCount + segmentSlots - 1) / segmentSlots)];
+    for (int i = 0; i < segments.length; ++i)
+    {
+      long slots = Math.min(segmentSlots, slotCount - i * segmentSlots);
+      segments[i] = channel.map(
+        FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * segmentSlots * SLOT_SIZE, slots * SLOT_SIZE
+      );
+    }
+    return segments;
+  }
+
+  private static byte[] magic(ByteBuffer header, byte[] magic)
+  {
+    header.get(magic);
+    return magic;
+  }
+
+  private static int slotOffset(long slot)
+  {
+    return (int)(slot & ((1L << SEGMENT_SLOT_BITS) - 1)) * SLOT_SIZE;
+  }
+
+  /// The string's UTF-8 bytes, cut at a character boundary to fit a slot's description.
+  private static byte[] truncatedUtf8(String s)
+  {
+    byte[] bytes = s.getBytes(UTF_8);
+    if (bytes.length <= DESCRIPTION_SIZE)
+      return bytes;
+    int length = DESCRIPTION_SIZE;
+    while ((bytes[length] & 0xC0) == 0x80) // continuation byte at the cut
+      --length;
+    return Arrays.copyOf(bytes, length);
+  }
+}
@@ -0,0 +1,42 @@
+package bi.docxutils;
+
+/// The 64-bit hashes that structures are compared, folded and fingerprinted by. Descriptions and XML are hashed with
+/// FNV-1a over their chars, and the hashes of children are combined into their parent's with mix. The values are
+/// stored in fingerprint tables, so they must not change.
+final class Hashes
+{
+  /// The FNV-1a hash of no chars, to continue with hashChar.
+  static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long MIX_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  /// The FNV-1a hash h continued with the char.
+  static long hashChar(long h, char c)
+  {
+    return (h ^ c) * FNV_PRIME;
+  }
+
+  /// 64-bit FNV-1a hash of the string's chars.
+  static long hashString(String s)
+  {
+    long h = FNV_OFFSET_BASIS;
+    for (int i = 0; i < s.length(); ++i)
+      h = hashChar(h, s.charAt(i));
+    return h;
+  }
+
+  /// The hash combined with the value, a child's hash or a count, order mattering.
+  static long mix(long hash, long value)
+  {
+    return (hash ^ value) * MIX_MULTIPLIER;
+  }
+
+  /// The mixed hash with its high bits folded into its low ones, which mix leaves poorly spread.
+  static long finish(long hash)
+  {
+    return hash ^ hash >>> 31;
+  }
+
+  private Hashes() {}
+}
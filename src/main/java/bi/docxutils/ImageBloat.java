@@ -0,0 +1,549 @@
+package bi.docxutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.dml.CTBlip;
+import org.docx4j.dml.CTBlipFillProperties;
+import org.docx4j.dml.CTPositiveSize2D;
+import org.docx4j.dml.Graphic;
+import org.docx4j.dml.GraphicData;
+import org.docx4j.dml.picture.Pic;
+import org.docx4j.dml.wordprocessingDrawing.Anchor;
+import org.docx4j.dml.wordprocessingDrawing.Inline;
+import org.docx4j.relationships.Relationship;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// Reports the documents and images of a corpus wasting the most space on media: duplicated, unused and oversampled
+/// images.
+///
+///     [--max-parallel=n] [--max-dpi=n] [--limit=n] <docx-file|input-dir|input-list-file> [output-file]
+///
+/// Each picture drawing of the main document body is joined to the media entry it shows through its blip embed id
+/// and the main document part's relationships, giving the largest extent each entry is displayed at. Every media
+/// entry is read once, straight from the zip and in parallel with the others as ZipFile allows, hashing its bytes
+/// with SHA-256 while its header is parsed for the pixel dimensions of PNG, JPEG, GIF and BMP images, without
+/// decoding any pixels. Sizes are the entries' compressed sizes, which is what they add to the docx. Wasted space is
+///
+///  - entries with the same content as another entry of the document, beyond the first
+///  - entries no relationship of any part targets, so nothing shows them
+///  - for images with more pixels than max-dpi (300 by default) needs at their largest displayed extent, the share
+///    of their size of the pixels beyond that, an estimate as compressed size isn't proportional to pixels
+///
+/// The report lists the documents and images wasting the most space, up to limit of each (20 by default), and the
+/// media occurring in the most documents, such as logos, by the total space they take in the corpus. Images shown
+/// only in headers, footers or other story parts have no displayed extent, so they're only checked for duplicates.
+final class ImageBloat
+{
+  private static final int DEFAULT_MAX_DPI = 300;
+  private static final int DEFAULT_LIMIT = 20;
+  private static final double EMUS_PER_INCH = 914400;
+  private static final double EMUS_PER_CM = 360000;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("max-parallel", "max-dpi", "limit"));
+    List<String> posArgs = cmdArgs.positional();
+
+    if (posArgs.size() != 1 && posArgs.size() != 2)
+      throw new RuntimeException(
+        "Expected 1 or 2 arguments: [--max-parallel=n] [--max-dpi=n] [--limit=n] " +
+        "<docx-file|input-dir|input-list-file> [output-file]"
+      );
+
+    int maxParallel = cmdArgs.value("max-parallel") instanceof String n
+      ? Integer.parseInt(n)
+      : Runtime.getRuntime().availableProcessors();
+    int maxDpi = cmdArgs.value("max-dpi") instanceof String n ? Integer.parseInt(n) : DEFAULT_MAX_DPI;
+    int limit = cmdArgs.value("limit") instanceof String n ? Integer.parseInt(n) : DEFAULT_LIMIT;
+    if (maxDpi < 1)
+      throw new RuntimeException("The --max-dpi option must be at least 1.");
+
+    Path input = Path.of(posArgs.get(0));
+    List<Path> docxFiles = Files.isRegularFile(input) && input.toString().toLowerCase().endsWith(".docx")
+      ? List.of(input)
+      : DocxBatchRunner.inputFiles(input);
+
+    List<DocumentMedia> documents = analyze(docxFiles, maxParallel, maxDpi);
+
+    try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+          posArgs.size() >= 2 ? new FileOutputStream(posArgs.get(1)) : System.out, UTF_8)))
+    {
+      writeReport(documents, maxDpi, limit, bw);
+    }
+  }
+
+  /// A media entry of a document, with the largest extent it's displayed at and the space it wastes.
+  private static final class Media
+  {
+    final String entryName;
+    final long storedSize;
+    String format = "unknown";
+    int width; // in pixels, 0 if unknown
+    int height;
+    String hash = "";
+    boolean targeted; // by some relationship
+    long maxCx; // displayed extent in EMUs, 0 if not displayed in the body
+    long maxCy;
+    long wastedSize;
+    String waste = "";
+
+    Media(ZipEntry entry)
+    {
+      this.entryName = entry.getName();
+      this.storedSize = Math.max(entry.getCompressedSize(), 0);
+    }
+
+    /// Read the entry, hashing its content and parsing its header for the format and pixel dimensions.
+    void read(ZipFile zip) throws IOException
+    {
+      MessageDigest digest = sha256();
+      try (InputStream in = new DigestInputStream(new BufferedInputStream(DocxZip.openEntry(zip, entryName)), digest))
+      {
+        try
+        {
+          readHeader(new DataInputStream(in));
+        }
+        catch (EOFException e)
+        {
+          // A truncated image, whose dimensions are unknown.
+        }
+        in.transferTo(OutputStream.nullOutputStream());
+      }
+      hash = HexFormat.of().formatHex(digest.digest());
+    }
+
+    /// Parse the image header, reading rather than skipping bytes so they're all hashed.
+    private void readHeader(DataInputStream in) throws IOException
+    {
+      int b0 = in.read(), b1 = in.read();
+      if (b0 == 0x89 && b1 == 'P')
+      {
+        // Rest of the signature, then the IHDR chunk's length and type.
+        in.readNBytes(6 + 8);
+        format = "png";
+        width = in.readInt();
+        height = in.readInt();
+      }
+      else if (b0 == 0xFF && b1 == 0xD8)
+      {
+        format = "jpeg";
+        readJpegFrameHeader(in);
+      }
+      else if (b0 == 'G' && b1 == 'I')
+      {
+        in.readNBytes(4);
+        format = "gif";
+        width = littleEndianShort(in);
+        height = littleEndianShort(in);
+      }
+      else if (b0 == 'B' && b1 == 'M')
+      {
+        in.readNBytes(16);
+        format = "bmp";
+        width = Math.abs(Integer.reverseBytes(in.readInt()));
+        height = Math.abs(Integer.reverseBytes(in.readInt()));
+      }
+      else if (b0 == 0x01 && b1 == 0x00)
+        format = "emf";
+      else if (b0 == 0xD7 && b1 == 0xCD)
+        format = "wmf";
+    }
+
+    /// Find the start of frame segment among the JPEG's segments and read the dimensions from it.
+    private void readJpegFrameHeader(DataInputStream in) throws IOException
+    {
+      while (true)
+      {
+        if (in.readUnsignedByte() != 0xFF)
+          continue;
+        int marker;
+        do marker = in.readUnsignedByte(); while (marker == 0xFF);
+
+        if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7))
+          continue; // markers without segments
+        if (marker == 0xD9 || marker == 0xDA)
+          return; // end of image or start of scan, no frame header found
+
+        int length = in.readUnsignedShort();
+        boolean isStartOfFrame = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+        if (isStartOfFrame)
+        {
+          in.readUnsignedByte(); // sample precision
+          height = in.readUnsignedShort();
+          width = in.readUnsignedShort();
+          return;
+        }
+        in.readNBytes(length - 2);
+      }
+    }
+
+    /// The dots per inch the image is displayed at, by its width, or 0 if unknown or not displayed.
+    double dpi()
+    {
+      return width > 0 && maxCx > 0 ? width / (maxCx / EMUS_PER_INCH) : 0;
+    }
+
+    void setWaste(long size, String reason)
+    {
+      wastedSize = size;
+      waste = reason;
+    }
+  }
+
+  /// The media of a document, with the space wasted in total and by kind.
+  private static final class DocumentMedia
+  {
+    final Path docxFile;
+    final List<Media> media;
+    long duplicateSize;
+    long untargetedSize;
+    long oversampledSize;
+
+    DocumentMedia(Path docxFile, List<Media> media)
+    {
+      this.docxFile = docxFile;
+      this.media = media;
+    }
+
+    long storedSize()
+    {
+      return media.stream().mapToLong(m -> m.storedSize).sum();
+    }
+
+    long wastedSize()
+    {
+      return duplicateSize + untargetedSize + oversampledSize;
+    }
+  }
+
+  /// Analyze the documents, up to maxParallel at a time and hashing up to maxParallel media entries at a time.
+  /// Documents failing to load are reported and left out.
+  static List<DocumentMedia> analyze(List<Path> docxFiles, int maxParallel, int maxDpi) throws InterruptedException
+  {
+    long startNanos = System.nanoTime();
+    List<DocumentMedia> documents = new ArrayList<>();
+    Semaphore traversalPermits = new Semaphore(maxParallel);
+    // Separate permits for hashing, as documents hold theirs while their entries are hashed.
+    Semaphore hashPermits = new Semaphore(maxParallel);
+    int failed = 0;
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+    {
+      List<Future<DocumentMedia>> analyses = new ArrayList<>();
+      for (Path docxFile : docxFiles)
+      {
+        analyses.add(executor.submit(() ->
+        {
+          traversalPermits.acquire();
+          try { return analyze(docxFile, executor, hashPermits, maxDpi); }
+          finally { traversalPermits.release(); }
+        }));
+      }
+
+      for (int d = 0; d < docxFiles.size(); ++d)
+      {
+        try
+        {
+          documents.add(analyses.get(d).get());
+        }
+        catch (ExecutionException e)
+        {
+          System.err.println("FAILED " + docxFiles.get(d) + ": " + e.getCause());
+          ++failed;
+        }
+      }
+    }
+
+    System.err.printf(
+      "%d documents: %d analyzed, %d failed; %d ms elapsed%n",
+      docxFiles.size(), documents.size(), failed, (System.nanoTime() - startNanos) / 1_000_000
+    );
+    return documents;
+  }
+
+  private static DocumentMedia analyze(Path docxFile, ExecutorService executor, Semaphore hashPermits, int maxDpi)
+    throws IOException, InterruptedException, org.docx4j.openpackaging.exceptions.Docx4JException
+  {
+    try (ZipFile zip = new ZipFile(docxFile.toFile()))
+    {
+      List<Media> media = zip.stream()
+        .filter(e -> !e.isDirectory() && e.getName().contains("media/"))
+        .sorted(Comparator.comparing(ZipEntry::getName))
+        .map(Media::new)
+        .toList();
+
+      List<Future<?>> reads = new ArrayList<>();
+      for (Media m : media)
+      {
+        reads.add(executor.submit(() ->
+        {
+          hashPermits.acquire();
+          try { m.read(zip); }
+          finally { hashPermits.release(); }
+          return null;
+        }));
+      }
+
+      // While the entries are read, find the relationship targets and the extents the images are displayed at.
+      Map<String, Media> mediaByName = new HashMap<>();
+      for (Media m : media)
+        mediaByName.put(m.entryName, m);
+
+      String mainPartName = DocxZip.mainDocumentPartName(zip);
+      String mainRelsPartName = DocxZip.relationshipsPartName(mainPartName);
+      Map<String, Media> mainPartImages = new HashMap<>(); // by relationship id
+      for (String relsPartName : zip.stream().map(ZipEntry::getName).filter(n -> n.endsWith(".rels")).toList())
+      {
+        String sourceDir = relsPartName.substring(0, relsPartName.lastIndexOf("_rels/"));
+        for (Relationship r : RelationshipsPrinter.readRelationships(zip, relsPartName))
+        {
+          if ("External".equals(r.getTargetMode()) ||
+              !(mediaByName.get(resolveTarget(sourceDir, r.getTarget())) instanceof Media m))
+            continue;
+          m.targeted = true;
+          if (relsPartName.equals(mainRelsPartName))
+            mainPartImages.put(r.getId(), m);
+        }
+      }
+
+      DocxMainPartBodyStructurePrinter.visitStructure(docxFile.toFile(), true, new StructureVisitor()
+      {
+        @Override
+        public void startNode(Object node, int depth)
+        {
+          switch (node)
+          {
+            case Inline i -> addExtent(i.getExtent(), i.getGraphic());
+            case Anchor a -> addExtent(a.getExtent(), a.getGraphic());
+            default -> {}
+          }
+        }
+
+        @Override
+        public void endNode(Object node, int depth) {}
+
+        private void addExtent(@Nullable CTPositiveSize2D extent, @Nullable Graphic g)
+        {
+          if (extent != null && g != null && g.getGraphicData() instanceof GraphicData gd &&
+              gd.getPic() instanceof Pic pic && pic.getBlipFill() instanceof CTBlipFillProperties fill &&
+              fill.getBlip() instanceof CTBlip blip && blip.getEmbed() instanceof String id &&
+              mainPartImages.get(id) instanceof Media m)
+          {
+            m.maxCx = Math.max(m.maxCx, extent.getCx());
+            m.maxCy = Math.max(m.maxCy, extent.getCy());
+          }
+        }
+      });
+
+      for (Future<?> read : reads)
+      {
+        try { read.get(); }
+        catch (ExecutionException e)
+        {
+          throw new IOException("Could not read media of " + docxFile + ": " + e.getCause(), e.getCause());
+        }
+      }
+
+      DocumentMedia document = new DocumentMedia(docxFile, media);
+      countWaste(document, maxDpi);
+      return document;
+    }
+  }
+
+  /// Set the media's waste, each entry counted for one kind of waste only, in the order listed in the class comment.
+  private static void countWaste(DocumentMedia document, int maxDpi)
+  {
+    // Of entries with the same content, the one displayed largest is kept, the first by name if none is displayed,
+    // and is taken to be displayed wherever the others are.
+    Map<String, Media> kept = new HashMap<>();
+    for (Media m : document.media)
+    {
+      if (m.targeted)
+        kept.merge(m.hash, m, (k, n) -> n.maxCx > k.maxCx ? n : k);
+    }
+    for (Media m : document.media)
+    {
+      if (m.targeted)
+      {
+        Media k = nonNull(kept.get(m.hash));
+        k.maxCx = Math.max(k.maxCx, m.maxCx);
+        k.maxCy = Math.max(k.maxCy, m.maxCy);
+      }
+    }
+
+    for (Media m : document.media)
+    {
+      if (!m.targeted)
+      {
+        m.setWaste(m.storedSize, "not targeted by any relationship");
+        document.untargetedSize += m.storedSize;
+      }
+      else if (kept.get(m.hash) != m)
+      {
+        m.setWaste(m.storedSize, "duplicate of another entry");
+        document.duplicateSize += m.storedSize;
+      }
+      else if (m.width > 0 && m.height > 0 && m.maxCx > 0 && m.maxCy > 0)
+      {
+        double pixels = (double)m.width * m.height;
+        double neededPixels = (m.maxCx / EMUS_PER_INCH * maxDpi) * (m.maxCy / EMUS_PER_INCH * maxDpi);
+        if (neededPixels < pixels)
+        {
+          long size = (long)(m.storedSize * (1 - neededPixels / pixels));
+          m.setWaste(size, "oversampled, " + Math.round(m.dpi()) + " dpi");
+          document.oversampledSize += size;
+        }
+      }
+    }
+  }
+
+  /// The zip entry name of a relationship's target, relative to its source part's directory unless absolute.
+  static String resolveTarget(String sourceDir, String target)
+  {
+    Deque<String> segments = new ArrayDeque<>();
+    for (String segment : ((target.startsWith("/") ? "" : sourceDir) + target).split("/"))
+    {
+      switch (segment)
+      {
+        case "", "." -> {}
+        case ".." -> segments.pollLast();
+        default -> segments.addLast(segment);
+      }
+    }
+    return String.join("/", segments);
+  }
+
+  static void writeReport(List<DocumentMedia> documents, int maxDpi, int limit, Writer w) throws IOException
+  {
+    long stored = 0, duplicate = 0, untargeted = 0, oversampled = 0;
+    int mediaCount = 0;
+    for (DocumentMedia d : documents)
+    {
+      stored += d.storedSize();
+      duplicate += d.duplicateSize;
+      untargeted += d.untargetedSize;
+      oversampled += d.oversampledSize;
+      mediaCount += d.media.size();
+    }
+
+    w.write(String.format(
+      "%d documents, %d media entries of %,d bytes, %,d bytes wasted: %,d duplicates, %,d untargeted, " +
+      "%,d oversampled beyond %d dpi (estimated)%n",
+      documents.size(), mediaCount, stored, duplicate + untargeted + oversampled, duplicate, untargeted, oversampled,
+      maxDpi
+    ));
+
+    w.write("\nDocuments wasting the most space:\n");
+    for (DocumentMedia d : documents.stream()
+                             .filter(d -> d.wastedSize() > 0)
+                             .sorted(Comparator.comparingLong(DocumentMedia::wastedSize).reversed())
+                             .limit(limit)
+                             .toList())
+    {
+      w.write(String.format(
+        "  %,14d of %,14d bytes: %s%n", d.wastedSize(), d.storedSize(), d.docxFile
+      ));
+    }
+
+    record DocumentImage(DocumentMedia document, Media media) {}
+    w.write("\nImages wasting the most space:\n");
+    for (DocumentImage i : documents.stream()
+                             .flatMap(d -> d.media.stream().map(m -> new DocumentImage(d, m)))
+                             .filter(i -> i.media.wastedSize > 0)
+                             .sorted(Comparator.comparingLong((DocumentImage i) -> i.media.wastedSize).reversed())
+                             .limit(limit)
+                             .toList())
+    {
+      Media m = i.media;
+      w.write(String.format(
+        "  %,14d of %,14d bytes: %s!%s, %s%s%s: %s%n",
+        m.wastedSize, m.storedSize, i.document.docxFile, m.entryName, m.format,
+        m.width > 0 ? " " + m.width + "x" + m.height : "",
+        m.maxCx > 0 ? String.format(" shown at %.1f x %.1f cm", m.maxCx / EMUS_PER_CM, m.maxCy / EMUS_PER_CM) : "",
+        m.waste
+      ));
+    }
+
+    // Media by content hash across documents, with the number of documents containing them.
+    record SharedMedia(Media example, Path exampleDocument, int documents) {}
+    Map<String, SharedMedia> sharedMedia = new HashMap<>();
+    for (DocumentMedia d : documents)
+    {
+      Set<String> documentHashes = new HashSet<>();
+      for (Media m : d.media)
+      {
+        if (documentHashes.add(m.hash))
+          sharedMedia.merge(m.hash, new SharedMedia(m, d.docxFile, 1),
+                            (s1, s2) -> new SharedMedia(s1.example, s1.exampleDocument, s1.documents + 1));
+      }
+    }
+
+    w.write("\nMedia in the most documents, by total space:\n");
+    for (SharedMedia s : sharedMedia.values().stream()
+                           .filter(s -> s.documents > 1)
+                           .sorted(Comparator.comparingLong((SharedMedia s) -> s.example.storedSize * s.documents)
+                                     .reversed())
+                           .limit(limit)
+                           .toList())
+    {
+      w.write(String.format(
+        "  %,14d bytes in %d documents: %s, e.g. %s!%s%n",
+        s.example.storedSize * s.documents, s.documents, s.example.hash.substring(0, 16), s.exampleDocument,
+        s.example.entryName
+      ));
+    }
+  }
+
+  private static int littleEndianShort(DataInputStream in) throws IOException
+  {
+    return Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+  }
+
+  private static MessageDigest sha256()
+  {
+    try
+    {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+}
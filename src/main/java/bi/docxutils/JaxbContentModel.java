@@ -0,0 +1,139 @@
+package bi.docxutils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.annotation.XmlElementDecl;
+import jakarta.xml.bind.annotation.XmlElementRef;
+import jakarta.xml.bind.annotation.XmlElementRefs;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlSchema;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.wml.ContentAccessor;
+
+/// Maps the child elements allowed in the content list of a docx4j ContentAccessor class to the classes JAXB would
+/// unmarshal them to, as declared by the JAXB annotations on the class and the element declarations of the object
+/// factories. This lets a streaming reader classify elements exactly as the JAXB tree would, without building it.
+final class JaxbContentModel
+{
+  private static final List<Class<?>> REGISTRIES = List.of(
+    org.docx4j.wml.ObjectFactory.class,
+    org.docx4j.math.ObjectFactory.class,
+    org.docx4j.mce.ObjectFactory.class,
+    org.docx4j.w14.ObjectFactory.class,
+    org.docx4j.w15.ObjectFactory.class
+  );
+
+  private record ElementDeclKey(Class<?> scope, QName name) {}
+
+  private static final Map<ElementDeclKey, Class<?>> elementDecls = loadElementDecls();
+
+  private static final Map<Class<?>, Optional<Map<QName, Class<?>>>> contentElementClassesByClass =
+    new ConcurrentHashMap<>();
+
+  /// The classes of the elements allowed in the content list of the given class by element name, or null if the
+  /// class is not a ContentAccessor.
+  static @Nullable Map<QName, Class<?>> contentElementClasses(Class<?> c)
+  {
+    return contentElementClassesByClass.computeIfAbsent(c, JaxbContentModel::loadContentElementClasses).orElse(null);
+  }
+
+  private static Optional<Map<QName, Class<?>>> loadContentElementClasses(Class<?> c)
+  {
+    if (!ContentAccessor.class.isAssignableFrom(c))
+      return Optional.empty();
+
+    for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+    {
+      for (Field f : k.getDeclaredFields())
+      {
+        XmlElementRef[] refs =
+          f.getAnnotation(XmlElementRefs.class) instanceof XmlElementRefs rs ? rs.value()
+          : f.getAnnotation(XmlElementRef.class) instanceof XmlElementRef r ? new XmlElementRef[]{ r }
+          : null;
+        if (refs == null || !List.class.isAssignableFrom(f.getType()))
+          continue;
+
+        Map<QName, Class<?>> res = new HashMap<>();
+        for (XmlElementRef ref : refs)
+        {
+          if (ref.type() == JAXBElement.class)
+          {
+            QName name = new QName(ref.namespace(), ref.name());
+            @Nullable Class<?> declType = elementDecls.get(new ElementDeclKey(k, name));
+            if (declType == null)
+              declType = elementDecls.get(new ElementDeclKey(XmlElementDecl.GLOBAL.class, name));
+            if (declType != null)
+              res.put(name, declType);
+          }
+          else if (rootElementName(ref.type()) instanceof QName rootName)
+          {
+            String ns = ref.namespace().equals("##default") ? rootName.getNamespaceURI() : ref.namespace();
+            String localName = ref.name().equals("##default") ? rootName.getLocalPart() : ref.name();
+            res.put(new QName(ns, localName), ref.type());
+          }
+        }
+        return Optional.of(Map.copyOf(res));
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  private static Map<ElementDeclKey, Class<?>> loadElementDecls()
+  {
+    Map<ElementDeclKey, Class<?>> res = new HashMap<>();
+
+    for (Class<?> registry : REGISTRIES)
+    {
+      for (Method m : registry.getMethods())
+      {
+        if (m.getAnnotation(XmlElementDecl.class) instanceof XmlElementDecl decl &&
+            m.getGenericReturnType() instanceof ParameterizedType pt &&
+            rawClass(pt.getActualTypeArguments()[0]) instanceof Class<?> declType)
+        {
+          res.put(new ElementDeclKey(decl.scope(), new QName(decl.namespace(), decl.name())), declType);
+        }
+      }
+    }
+
+    return res;
+  }
+
+  private static @Nullable QName rootElementName(Class<?> c)
+  {
+    if (!(c.getAnnotation(XmlRootElement.class) instanceof XmlRootElement re))
+      return null;
+
+    String localName = re.name().equals("##default")
+      ? Character.toLowerCase(c.getSimpleName().charAt(0)) + c.getSimpleName().substring(1)
+      : re.name();
+    String ns =
+      !re.namespace().equals("##default") ? re.namespace()
+      : c.getPackage().getAnnotation(XmlSchema.class) instanceof XmlSchema s ? s.namespace()
+      : "";
+
+    return new QName(ns, localName);
+  }
+
+  private static @Nullable Class<?> rawClass(Type t)
+  {
+    return switch (t)
+    {
+      case Class<?> c -> c;
+      case ParameterizedType pt -> rawClass(pt.getRawType());
+      default -> null;
+    };
+  }
+
+  private JaxbContentModel() {}
+}
@@ -3,9 +3,18 @@ package bi.docxutils;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Comparator.comparing;
 
 import org.docx4j.openpackaging.exceptions.Docx4JException;
@@ -13,20 +22,56 @@ import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.docx4j.openpackaging.parts.relationships.RelationshipsPart;
 import org.docx4j.relationships.Relationship;
 
+import bi.util.CommandArgs;
+
 class RelationshipsPrinter
 {
   public static void main(String[] args) throws FileNotFoundException, Docx4JException, IOException
   {
-    if (args.length != 1 && args.length != 2)
-      throw new RuntimeException("Expected 1 or 2 arguments: <docx-input-file> [output-file]");
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("stats"));
+    List<String> fileArgs = cmdArgs.positional();
+
+    if (fileArgs.size() != 1 && fileArgs.size() != 2)
+      throw new RuntimeException("Expected 1 or 2 arguments: [--stats] <docx-input-file> [output-file]");
 
-    WordprocessingMLPackage docx = WordprocessingMLPackage.load(new File(args[0]));
+    File docxFile = new File(fileArgs.get(0));
+    ToolStats stats = ToolStats.fromOptions(DocxTool.RELATIONSHIPS.commandName, docxFile, cmdArgs);
 
-    try (BufferedWriter bw = args.length >= 2
-          ? new BufferedWriter(new FileWriter(args[1]))
-          : new BufferedWriter(new OutputStreamWriter(System.out)))
+    try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+          stats.output(fileArgs.size() >= 2 ? new FileOutputStream(fileArgs.get(1)) : System.out), UTF_8)))
     {
-      writeRelationships(docx, bw);
+      writeRelationships(docxFile, bw, stats);
+    }
+
+    stats.finish();
+  }
+
+  /// Write the main document part's relationships reading only the relationships entry from the docx zip, without
+  /// loading the package. The output is the same as for the loaded package.
+  public static void writeRelationships(File docxFile, BufferedWriter bw, ToolStats stats) throws IOException
+  {
+    try (ZipFile zip = new ZipFile(docxFile))
+    {
+      String relsPartName = DocxZip.relationshipsPartName(DocxZip.mainDocumentPartName(zip));
+      if (zip.getEntry(relsPartName) == null)
+        return;
+
+      List<Relationship> rels;
+      try (var phase = stats.phase(ToolStats.Phase.UNMARSHAL))
+      {
+        rels = readRelationships(zip, relsPartName);
+        stats.addBytesRead(DocxZip.compressedSize(zip, relsPartName));
+      }
+
+      try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+      {
+        for (var r : rels.stream().sorted(comparing(Relationship::getId)).toList())
+        {
+          stats.countNode(r.getType().substring(r.getType().lastIndexOf('/') + 1));
+          bw.write(relDescr(r));
+          bw.write("\n");
+        }
+      }
     }
   }
 
@@ -43,6 +88,46 @@ class RelationshipsPrinter
     }
   }
 
+  static List<Relationship> readRelationships(ZipFile zip, String relsPartName) throws IOException
+  {
+    List<Relationship> rels = new ArrayList<>();
+
+    try (InputStream is = DocxZip.openEntry(zip, relsPartName))
+    {
+      XMLStreamReader r = DocxZip.xmlReader(is);
+      try
+      {
+        while (r.hasNext())
+        {
+          if (r.next() == XMLStreamConstants.START_ELEMENT && r.getLocalName().equals("Relationship"))
+          {
+            Relationship rel = new Relationship();
+            rel.setId(requiredAttribute(r, "Id"));
+            rel.setType(requiredAttribute(r, "Type"));
+            rel.setTarget(requiredAttribute(r, "Target"));
+            if (DocxZip.attribute(r, "TargetMode") instanceof String targetMode)
+              rel.setTargetMode(targetMode);
+            rels.add(rel);
+          }
+        }
+      }
+      finally { r.close(); }
+    }
+    catch (XMLStreamException e)
+    {
+      throw new IOException("Could not read relationships part " + relsPartName + ": " + e.getMessage(), e);
+    }
+
+    return rels;
+  }
+
+  private static String requiredAttribute(XMLStreamReader r, String name) throws XMLStreamException
+  {
+    if (!(DocxZip.attribute(r, name) instanceof String value))
+      throw new XMLStreamException("Relationship element is missing attribute " + name + ".", r.getLocation());
+    return value;
+  }
+
   private static String relDescr(Relationship r)
   {
     return new StringBuilder()
@@ -0,0 +1,227 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.ZipFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+
+import bi.util.CommandArgs;
+
+/// On-disk cache of tool outputs, keyed by a SHA-256 hash of the tool name and the content of just the zip entries
+/// which determine the tool's output, so that changes elsewhere in a document (docProps, unrelated parts) still hit.
+/// A hit is served without loading the package. Entries are written to temporary files and atomically moved into
+/// place, and a hit refreshes the entry's modification time, which eviction uses to remove least recently used
+/// entries once the cache exceeds its size bound. Any number of threads and processes can share a cache directory.
+final class ResultCache
+{
+  static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+  // Bump when the output of any tool changes for the same input, to invalidate existing entries.
+  private static final String CACHE_FORMAT_VERSION = "2";
+
+  private static final String ENTRY_SUFFIX = ".txt";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final Duration STALE_TEMP_FILE_AGE = Duration.ofHours(1);
+
+  private final Path dir;
+  private final long maxBytes;
+
+  ResultCache(Path dir, long maxBytes)
+  {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  /// The cache specified by the --cache[=dir] and --cache-max-mb=n options, or null if --cache was not given.
+  static @Nullable ResultCache fromOptions(CommandArgs args)
+  {
+    if (!(args.value("cache") instanceof String dirOpt))
+      return null;
+
+    Path dir = dirOpt.isEmpty() ? Path.of(System.getProperty("user.home"), ".cache", "docx-utils") : Path.of(dirOpt);
+    long maxBytes = args.value("cache-max-mb") instanceof String mb && !mb.isEmpty()
+      ? Long.parseLong(mb) * 1024 * 1024
+      : DEFAULT_MAX_BYTES;
+
+    return new ResultCache(dir, maxBytes);
+  }
+
+  /// Write the tool's output for the document, from the cache if present, else by running the tool and caching its
+  /// output as it is written.
+  void write(DocxTool tool, File docxFile, BufferedWriter bw) throws IOException, Docx4JException
+  {
+    String key = key(tool, docxFile);
+    Path entry = dir.resolve(key + ENTRY_SUFFIX);
+
+    if (copyEntry(entry, bw))
+      return;
+
+    Files.createDirectories(dir);
+    Path temp = Files.createTempFile(dir, key, TEMP_SUFFIX);
+    try
+    {
+      try (BufferedWriter cacheWriter = Files.newBufferedWriter(temp, UTF_8))
+      {
+        BufferedWriter teeWriter = new BufferedWriter(new TeeWriter(bw, cacheWriter));
+        tool.write(docxFile, teeWriter);
+        teeWriter.flush();
+      }
+      Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally
+    {
+      Files.deleteIfExists(temp);
+    }
+
+    evictIfOversized();
+  }
+
+  String key(DocxTool tool, File docxFile) throws IOException
+  {
+    MessageDigest digest = sha256();
+    digest.update((CACHE_FORMAT_VERSION + "\n" + tool.commandName + "\n").getBytes(UTF_8));
+
+    try (ZipFile zip = new ZipFile(docxFile))
+    {
+      for (String entryName : tool.inputEntryNames(zip))
+      {
+        digest.update((entryName + "\n").getBytes(UTF_8));
+        if (zip.getEntry(entryName) == null)
+        {
+          digest.update((byte)0);
+          continue;
+        }
+        digest.update((byte)1);
+        try (InputStream is = new DigestInputStream(DocxZip.openEntry(zip, entryName), digest))
+        {
+          is.transferTo(OutputStream.nullOutputStream());
+        }
+      }
+    }
+
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /// Copy a cache entry's content to the writer and mark it as recently used, returning false if there is no entry.
+  private boolean copyEntry(Path entry, Writer w) throws IOException
+  {
+    Reader r;
+    try { r = Files.newBufferedReader(entry, UTF_8); }
+    catch (NoSuchFileException e) { return false; }
+
+    // An open entry stays readable even if another process evicts it meanwhile.
+    try (r)
+    {
+      try { Files.setLastModifiedTime(entry, FileTime.from(Instant.now())); }
+      catch (NoSuchFileException e) { /* evicted since opened */ }
+      r.transferTo(w);
+    }
+
+    return true;
+  }
+
+  private void evictIfOversized() throws IOException
+  {
+    record CachedFile(Path path, long size, FileTime lastModified) {}
+
+    List<CachedFile> entries = new ArrayList<>();
+    long totalBytes = 0;
+    Instant staleTempCutoff = Instant.now().minus(STALE_TEMP_FILE_AGE);
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir))
+    {
+      for (Path file : files)
+      {
+        BasicFileAttributes attrs;
+        try { attrs = Files.readAttributes(file, BasicFileAttributes.class); }
+        catch (NoSuchFileException e) { continue; }
+
+        String fileName = file.toString();
+        if (fileName.endsWith(ENTRY_SUFFIX))
+        {
+          entries.add(new CachedFile(file, attrs.size(), attrs.lastModifiedTime()));
+          totalBytes += attrs.size();
+        }
+        else if (fileName.endsWith(TEMP_SUFFIX) && attrs.lastModifiedTime().toInstant().isBefore(staleTempCutoff))
+          Files.deleteIfExists(file); // left by a crashed process
+      }
+    }
+
+    if (totalBytes <= maxBytes)
+      return;
+
+    // Evict down to below the bound, so eviction isn't needed again on each following write.
+    long targetBytes = maxBytes - maxBytes / 10;
+    entries.sort(Comparator.comparing(CachedFile::lastModified));
+    for (CachedFile entry : entries)
+    {
+      if (totalBytes <= targetBytes)
+        break;
+      Files.deleteIfExists(entry.path());
+      totalBytes -= entry.size();
+    }
+  }
+
+  private static MessageDigest sha256()
+  {
+    try { return MessageDigest.getInstance("SHA-256"); }
+    catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+  }
+
+  /// Writes to two writers, leaving both open when closed.
+  private static final class TeeWriter extends Writer
+  {
+    private final Writer w1;
+    private final Writer w2;
+
+    TeeWriter(Writer w1, Writer w2) { this.w1 = w1; this.w2 = w2; }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+      w1.write(cbuf, off, len);
+      w2.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException
+    {
+      w1.write(s, off, len);
+      w2.write(s, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      w1.flush();
+      w2.flush();
+    }
+
+    @Override
+    public void close() throws IOException { flush(); }
+  }
+}
@@ -0,0 +1,136 @@
+package bi.docxutils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.wml.Text;
+
+import static bi.docxutils.Hashes.hashString;
+import static bi.docxutils.Hashes.mix;
+import static bi.util.Nullables.nonNull;
+
+/// Folds runs of consecutive structurally identical siblings into the first of them followed by a Repeats node for
+/// the run, passing the folded structure on to another visitor. Siblings are structurally identical when their
+/// subtrees have the same shape and descriptions apart from text values, so the thousands of rows of a generated
+/// table differing only in their text render as one example row and "×N".
+///
+/// Identity is decided by a 64-bit hash of each subtree, taken as the subtree ends over its description by value, as
+/// by nodeValueDescr, and its already folded children's runs, so nested runs fold first and a parent's hash covers
+/// its children's run lengths.
+/// Each top level item is held until it ends and the next one shows whether it continues a run, but only as its
+/// folded structure, so memory use is proportional to the folded output rather than to the document. Call finish()
+/// after the traversal to pass on the last top level run.
+final class SiblingFolder implements StructureVisitor
+{
+  /// Stands for a run of count siblings identical to the one preceding it, count including that one.
+  record Repeats(int count) {}
+
+  private static final class Subtree
+  {
+    final Object node;
+    final int depth;
+    long hash;
+    final List<Object> children = new ArrayList<>(); // folded: Subtree and Repeats items
+
+    // The run of identical children not yet added to children, by its first child.
+    @Nullable Subtree runStart;
+    int runLength;
+
+    Subtree(Object node, int depth, long hash)
+    {
+      this.node = node;
+      this.depth = depth;
+      this.hash = hash;
+    }
+
+    /// Add a child, which either continues the current run or ends it and starts the next.
+    void add(Subtree child)
+    {
+      if (runStart != null && runStart.hash == child.hash)
+        ++runLength;
+      else
+      {
+        endRun();
+        runStart = child;
+        runLength = 1;
+      }
+    }
+
+    void endRun()
+    {
+      if (runStart instanceof Subtree first)
+      {
+        children.add(first);
+        if (runLength > 1)
+          children.add(new Repeats(runLength));
+        hash = mix(mix(hash, first.hash), runLength);
+        runStart = null;
+      }
+    }
+  }
+
+  private final StructureVisitor visitor;
+  private final Deque<Subtree> openSubtrees = new ArrayDeque<>(List.of(new Subtree("", -1, 0)));
+
+  SiblingFolder(StructureVisitor visitor)
+  {
+    this.visitor = visitor;
+  }
+
+  @Override
+  public void startNode(Object node, int depth)
+  {
+    // Text values are left out, other descriptions are the structure's, by value.
+    String descr = node instanceof Text ? "Text" : DocxMainPartBodyStructurePrinter.nodeValueDescr(node);
+    openSubtrees.push(new Subtree(node, depth, hashString(descr)));
+  }
+
+  @Override
+  public void endNode(Object node, int depth) throws IOException
+  {
+    Subtree subtree = openSubtrees.pop();
+    subtree.endRun();
+    subtree.hash = Hashes.finish(subtree.hash);
+
+    Subtree parent = nonNull(openSubtrees.peek());
+    parent.add(subtree);
+    if (openSubtrees.size() == 1)
+      passOnEndedRuns(parent);
+  }
+
+  /// Pass on the last top level run.
+  void finish() throws IOException
+  {
+    Subtree root = openSubtrees.getLast();
+    root.endRun();
+    passOnEndedRuns(root);
+  }
+
+  private void passOnEndedRuns(Subtree root) throws IOException
+  {
+    for (Object item : root.children)
+      passOn(item, 0);
+    root.children.clear();
+  }
+
+  private void passOn(Object item, int siblingDepth) throws IOException
+  {
+    if (item instanceof Subtree s)
+    {
+      visitor.startNode(s.node, s.depth);
+      for (Object child : s.children)
+        passOn(child, s.depth + 1);
+      visitor.endNode(s.node, s.depth);
+    }
+    else
+    {
+      visitor.startNode(item, siblingDepth);
+      visitor.endNode(item, siblingDepth);
+    }
+  }
+
+}
@@ -0,0 +1,507 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.zip.ZipFile;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.bind.ValidationEvent;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.jaxb.Context;
+import org.docx4j.openpackaging.parts.relationships.Namespaces;
+import org.docx4j.wml.Body;
+
+import static bi.docxutils.Hashes.hashChar;
+import static bi.util.Nullables.nonNull;
+
+/// Traverses the main document body like DocxMainPartBodyStructurePrinter.visitStructure, but by pulling the main
+/// document part's XML directly from the docx zip instead of loading the package. Container elements (paragraphs,
+/// runs, tables, rows, cells, hyperlinks, ...) are never materialized with their content: only their attributes and
+/// leading property elements are unmarshalled, so memory use is proportional to nesting depth rather than document
+/// size. Leaf elements whose descriptions need their values (text, bookmarks, field chars, drawings) are unmarshalled
+/// individually, other leaves are visited as empty instances of their classes. Visitors thus see the same nodes in
+/// the same order as with the JAXB traversal, and the text output is byte-identical.
+final class StreamingStructurePrinter
+{
+  private static final ClassValue<Constructor<?>> noArgConstructors = new ClassValue<>()
+  {
+    @Override
+    protected Constructor<?> computeValue(Class<?> c)
+    {
+      try { return c.getDeclaredConstructor(); }
+      catch (NoSuchMethodException e) { throw new RuntimeException(e); }
+    }
+  };
+
+  private final XMLStreamReader r;
+  private final StructureSelector selector;
+  private final StructureVisitor visitor;
+  private final Unmarshaller unmarshaller;
+
+  private StreamingStructurePrinter(XMLStreamReader r, StructureSelector selector, StructureVisitor visitor)
+    throws JAXBException
+  {
+    this.r = r;
+    this.selector = selector;
+    this.visitor = visitor;
+    this.unmarshaller = Context.jc.createUnmarshaller();
+    // Ignore unrecognized content as docx4j does when loading parts, rather than failing on it.
+    this.unmarshaller.setEventHandler(e -> e.getSeverity() != ValidationEvent.FATAL_ERROR);
+  }
+
+  static void writeStructure(File docxFile, BufferedWriter bw) throws IOException
+  {
+    visitStructure(docxFile, new StructureTextWriter(bw));
+  }
+
+  static void visitStructure(File docxFile, StructureVisitor visitor) throws IOException
+  {
+    visitStructure(docxFile, StructureSelector.ALL, visitor, new ToolStats("streaming-structure", docxFile.getPath(), false));
+  }
+
+  /// Visit the selected parts of the structure. Unselected subtrees are skipped over as XML events without
+  /// unmarshalling anything, and reading stops after the last selected top level body item.
+  static void visitStructure(File docxFile, StructureSelector selector, StructureVisitor visitor, ToolStats stats)
+    throws IOException
+  {
+    try (ZipFile zip = new ZipFile(docxFile))
+    {
+      String mainPartName = DocxZip.mainDocumentPartName(zip);
+      stats.addBytesRead(DocxZip.compressedSize(zip, mainPartName));
+
+      StructureSelector.BodyItemRange bodyItems = selector.bodyItems;
+      if (selector.bookmark instanceof String bookmark)
+      {
+        try (InputStream is = DocxZip.openEntry(zip, mainPartName))
+        {
+          XMLStreamReader r = DocxZip.xmlReader(is);
+          try { bodyItems = bodyItems.intersect(bookmarkBodyItems(r, bookmark)); }
+          finally { r.close(); }
+        }
+      }
+
+      try (InputStream is = DocxZip.openEntry(zip, mainPartName))
+      {
+        XMLStreamReader r = DocxZip.xmlReader(is);
+        try
+        {
+          int first = bodyItems.first();
+          new StreamingStructurePrinter(r, selector, visitor).visitBody(i -> i >= first, bodyItems.last());
+        }
+        finally { r.close(); }
+      }
+    }
+    catch (XMLStreamException | JAXBException e)
+    {
+      throw new IOException("Error reading main document part of " + docxFile + ": " + e.getMessage(), e);
+    }
+  }
+
+  /// Visit just the top level body items whose indexes are set, in document order. The others are skipped over as XML
+  /// events, and reading stops after the last one set.
+  static void visitBodyItems(File docxFile, BitSet bodyItems, StructureVisitor visitor, ToolStats stats)
+    throws IOException
+  {
+    readMainPart(docxFile, stats, r ->
+    {
+      new StreamingStructurePrinter(r, StructureSelector.ALL, visitor).visitBody(bodyItems::get, bodyItems.length() - 1);
+      return null;
+    });
+  }
+
+  /// Hashes of the top level body items' XML, one per item in document order, for telling which items changed between
+  /// versions of a document without unmarshalling any of them. The hash covers element and attribute names with their
+  /// namespaces, attribute values and character data, so it doesn't depend on namespace prefixes or on where the
+  /// parser splits text into events.
+  static long[] bodyItemHashes(File docxFile, ToolStats stats) throws IOException
+  {
+    return readMainPart(docxFile, stats, r ->
+    {
+      toBodyContent(r);
+
+      Map<QName, Class<?>> bodyContentClasses = nonNull(JaxbContentModel.contentElementClasses(Body.class));
+      long[] hashes = new long[64];
+      int count = 0;
+
+      while (toNextChildElement(r))
+      {
+        if (!bodyContentClasses.containsKey(r.getName())) { skipElement(r); continue; }
+
+        if (count == hashes.length)
+          hashes = Arrays.copyOf(hashes, 2 * count);
+        hashes[count++] = hashElement(r);
+      }
+
+      return Arrays.copyOf(hashes, count);
+    });
+  }
+
+  /// 64-bit FNV-1a hash of the element at the current position, leaving the reader past its end like skipElement.
+  /// Names and values are each followed by U+FFFF, which can't occur in XML, so they can't run into each other.
+  private static long hashElement(XMLStreamReader r) throws XMLStreamException
+  {
+    long h = Hashes.FNV_OFFSET_BASIS;
+    int depth = 0;
+    do
+    {
+      switch (r.getEventType())
+      {
+        case START_ELEMENT ->
+        {
+          ++depth;
+          h = hash(hash(hashChar(h, '<'), r.getNamespaceURI()), r.getLocalName());
+          for (int i = 0; i < r.getAttributeCount(); ++i)
+          {
+            h = hash(hashChar(h, '@'), r.getAttributeNamespace(i));
+            h = hash(hash(h, r.getAttributeLocalName(i)), r.getAttributeValue(i));
+          }
+        }
+        case END_ELEMENT ->
+        {
+          --depth;
+          h = hashChar(h, '>');
+        }
+        case CHARACTERS, CDATA, SPACE ->
+        {
+          char[] text = r.getTextCharacters();
+          for (int i = r.getTextStart(), end = i + r.getTextLength(); i < end; ++i)
+            h = hashChar(h, text[i]);
+        }
+        default -> {}
+      }
+      r.next();
+    }
+    while (depth > 0);
+    return h;
+  }
+
+  private static long hash(long h, @Nullable String s)
+  {
+    if (s != null)
+    {
+      for (int i = 0; i < s.length(); ++i)
+        h = hashChar(h, s.charAt(i));
+    }
+    return hashChar(h, '\uFFFF');
+  }
+
+  interface MainPartReader<T>
+  {
+    T read(XMLStreamReader r) throws XMLStreamException, JAXBException, IOException;
+  }
+
+  /// Read the main document part's XML from the docx zip with the reader, counting its compressed size in the stats.
+  static <T> T readMainPart(File docxFile, ToolStats stats, MainPartReader<T> reader) throws IOException
+  {
+    try (ZipFile zip = new ZipFile(docxFile))
+    {
+      String mainPartName = DocxZip.mainDocumentPartName(zip);
+      stats.addBytesRead(DocxZip.compressedSize(zip, mainPartName));
+
+      try (InputStream is = DocxZip.openEntry(zip, mainPartName))
+      {
+        XMLStreamReader r = DocxZip.xmlReader(is);
+        try { return reader.read(r); }
+        finally { r.close(); }
+      }
+    }
+    catch (XMLStreamException | JAXBException e)
+    {
+      throw new IOException("Error reading main document part of " + docxFile + ": " + e.getMessage(), e);
+    }
+  }
+
+  /// Visit the top level body items selected by index, up to the last index given.
+  private void visitBody(IntPredicate isSelected, int last) throws XMLStreamException, JAXBException, IOException
+  {
+    toBodyContent(r);
+
+    Map<QName, Class<?>> bodyContentClasses = nonNull(JaxbContentModel.contentElementClasses(Body.class));
+
+    for (int i = 0; toNextChildElement(r) && i <= last; )
+    {
+      @Nullable Class<?> c = bodyContentClasses.get(r.getName());
+      if (c == null || !isSelected.test(i++)) { skipElement(r); continue; }
+
+      visitNode(c, selector.bodyItemDepth());
+    }
+  }
+
+  /// Position the reader at the first event within the body element.
+  static void toBodyContent(XMLStreamReader r) throws XMLStreamException, IOException
+  {
+    while (!(r.getEventType() == START_ELEMENT && r.getLocalName().equals("body")))
+    {
+      if (!r.hasNext())
+        throw new IOException("No body element found in main document part.");
+      r.next();
+    }
+    r.next();
+  }
+
+  /// The top level body items from the one containing the named bookmark's start through the one containing its end,
+  /// found by scanning XML events up to the bookmark's end.
+  private static StructureSelector.BodyItemRange bookmarkBodyItems(XMLStreamReader r, String bookmark)
+    throws XMLStreamException, IOException
+  {
+    toBodyContent(r);
+
+    Map<QName, Class<?>> bodyContentClasses = nonNull(JaxbContentModel.contentElementClasses(Body.class));
+    @Nullable String id = null;
+    int first = -1, i = -1;
+
+    while (toNextChildElement(r))
+    {
+      if (!bodyContentClasses.containsKey(r.getName())) { skipElement(r); continue; }
+      ++i;
+
+      int depth = 0;
+      do
+      {
+        switch (r.getEventType())
+        {
+          case START_ELEMENT ->
+          {
+            ++depth;
+            if (id == null && r.getLocalName().equals("bookmarkStart") &&
+                bookmark.equals(DocxZip.attribute(r, Namespaces.NS_WORD12, "name")))
+            {
+              id = DocxZip.attribute(r, Namespaces.NS_WORD12, "id");
+              first = i;
+            }
+            else if (id != null && r.getLocalName().equals("bookmarkEnd") &&
+                     id.equals(DocxZip.attribute(r, Namespaces.NS_WORD12, "id")))
+              return new StructureSelector.BodyItemRange(first, i);
+          }
+          case END_ELEMENT -> --depth;
+          default -> {}
+        }
+        r.next();
+      }
+      while (depth > 0);
+    }
+
+    if (id == null)
+      throw new RuntimeException("Bookmark '" + bookmark + "' not found.");
+    return new StructureSelector.BodyItemRange(first, i);
+  }
+
+  /// Visit the subtree for the element at the reader's current position, leaving the reader positioned at the event
+  /// following the element's end. The depth is StructureSelector.SEARCHING outside of selected subtrees, where only
+  /// elements that may contain selected ones are descended into, without unmarshalling them.
+  private void visitNode(Class<?> c, int depth) throws XMLStreamException, JAXBException, IOException
+  {
+    @Nullable Map<QName, Class<?>> contentClasses = JaxbContentModel.contentElementClasses(c);
+
+    if (depth == StructureSelector.SEARCHING && !selector.isSelectedType(c))
+    {
+      if (!selector.mayContainSelected(c))
+        skipElement(r);
+      else if (contentClasses != null)
+      {
+        r.next(); // past the container's start element
+        while (toNextChildElement(r))
+        {
+          @Nullable Class<?> childClass = contentClasses.get(r.getName());
+          if (childClass == null) { skipElement(r); continue; }
+
+          visitNode(childClass, StructureSelector.SEARCHING);
+        }
+        r.next(); // past the container's end element
+      }
+      else
+      {
+        Object o = nonNull(unmarshaller.unmarshal(r, c).getValue());
+        DocxMainPartBodyStructurePrinter.visitSelectedContent(o, StructureSelector.SEARCHING, selector, visitor);
+      }
+      return;
+    }
+
+    depth = Math.max(depth, 0);
+
+    if (contentClasses != null)
+    {
+      ContainerShellReader shellReader = new ContainerShellReader(r, contentClasses.keySet());
+      Object shell = nonNull(unmarshaller.unmarshal(shellReader, c).getValue());
+
+      visitor.startNode(shell, depth);
+
+      if (shellReader.stoppedAtContent())
+      {
+        boolean visitChildren = depth + 1 < selector.maxDepth;
+        while (toNextChildElement(r))
+        {
+          @Nullable Class<?> childClass = contentClasses.get(r.getName());
+          if (childClass == null || !visitChildren) { skipElement(r); continue; }
+
+          visitNode(childClass, depth + 1);
+        }
+        r.next(); // past the container's end element
+      }
+
+      visitor.endNode(shell, depth);
+    }
+    else if (DocxMainPartBodyStructurePrinter.describesValue(c))
+    {
+      Object o = nonNull(unmarshaller.unmarshal(r, c).getValue());
+      if (selector.selectsAll())
+        DocxMainPartBodyStructurePrinter.visitContent(o, depth, visitor);
+      else
+        DocxMainPartBodyStructurePrinter.visitSelectedContent(o, depth, selector, visitor);
+    }
+    else
+    {
+      skipElement(r);
+      Object o = emptyInstance(c);
+      visitor.startNode(o, depth);
+      visitor.endNode(o, depth);
+    }
+  }
+
+  private static Object emptyInstance(Class<?> c)
+  {
+    try
+    {
+      return noArgConstructors.get(c).newInstance();
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new RuntimeException("Could not instantiate " + c.getName(), e);
+    }
+  }
+
+  /// Advance to the next child element start, returning false if the parent's end element is reached first.
+  private static boolean toNextChildElement(XMLStreamReader r) throws XMLStreamException
+  {
+    while (true)
+    {
+      switch (r.getEventType())
+      {
+        case START_ELEMENT -> { return true; }
+        case END_ELEMENT -> { return false; }
+        case END_DOCUMENT -> throw new XMLStreamException("Unexpected end of document.");
+        default -> r.next();
+      }
+    }
+  }
+
+  /// Skip the element at the current position including all of its content, without materializing any of it.
+  static void skipElement(XMLStreamReader r) throws XMLStreamException
+  {
+    int depth = 0;
+    do
+    {
+      switch (r.getEventType())
+      {
+        case START_ELEMENT -> ++depth;
+        case END_ELEMENT -> --depth;
+        default -> {}
+      }
+      r.next();
+    }
+    while (depth > 0);
+  }
+
+  /// Presents a container element to JAXB as if it ended just before its first content child, so that only the
+  /// container's attributes and leading property elements (pPr, rPr, tblPr, tcPr, ...) are unmarshalled. The
+  /// underlying reader is left positioned at the first content child, or past the container if it has none.
+  private static final class ContainerShellReader extends StreamReaderDelegate
+  {
+    private final Set<?> contentElementNames;
+    private final QName containerName;
+    private final List<String> containerNamespacePrefixes;
+    private int depth = 1;
+    private boolean atSyntheticEnd;
+    private boolean stoppedAtContent;
+
+    ContainerShellReader(XMLStreamReader r, Set<?> contentElementNames)
+    {
+      super(r);
+      this.contentElementNames = contentElementNames;
+      this.containerName = r.getName();
+      this.containerNamespacePrefixes = new ArrayList<>();
+      for (int i = 0; i < r.getNamespaceCount(); ++i)
+        containerNamespacePrefixes.add(r.getNamespacePrefix(i));
+    }
+
+    boolean stoppedAtContent() { return stoppedAtContent; }
+
+    @Override
+    public int next() throws XMLStreamException
+    {
+      // The synthetic end is the last event consumed, leave the underlying reader at the first content child.
+      if (atSyntheticEnd)
+      {
+        atSyntheticEnd = false;
+        return super.getEventType();
+      }
+
+      int event = super.next();
+
+      if (event == START_ELEMENT)
+      {
+        if (depth == 1 && contentElementNames.contains(super.getName()))
+        {
+          atSyntheticEnd = stoppedAtContent = true;
+          return END_ELEMENT;
+        }
+        ++depth;
+      }
+      else if (event == END_ELEMENT)
+        --depth;
+
+      return event;
+    }
+
+    @Override
+    public int getEventType() { return atSyntheticEnd ? END_ELEMENT : super.getEventType(); }
+
+    @Override
+    public boolean isStartElement() { return !atSyntheticEnd && super.isStartElement(); }
+
+    @Override
+    public boolean isEndElement() { return atSyntheticEnd || super.isEndElement(); }
+
+    @Override
+    public QName getName() { return atSyntheticEnd ? containerName : super.getName(); }
+
+    @Override
+    public String getLocalName() { return atSyntheticEnd ? containerName.getLocalPart() : super.getLocalName(); }
+
+    @Override
+    public String getNamespaceURI() { return atSyntheticEnd ? containerName.getNamespaceURI() : super.getNamespaceURI(); }
+
+    @Override
+    public String getPrefix() { return atSyntheticEnd ? containerName.getPrefix() : super.getPrefix(); }
+
+    @Override
+    public int getNamespaceCount() { return atSyntheticEnd ? containerNamespacePrefixes.size() : super.getNamespaceCount(); }
+
+    @Override
+    public String getNamespacePrefix(int index)
+    {
+      return atSyntheticEnd ? containerNamespacePrefixes.get(index) : super.getNamespacePrefix(index);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package bi.docxutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/// Writes the structure in a compact binary form, as nodes are visited. After the 4 byte header "DXS" followed by the
+/// format version, the stream is a sequence of length-prefixed records
+///
+///     tag: byte, payload length: varint, payload
+///
+/// so readers can skip records they don't know. Varints are unsigned LEB128 and strings are a varint byte length
+/// followed by UTF-8 bytes. The record types are
+///
+///     1  type definition: type id varint, type name string; written before the first node of the type
+///     2  node: depth varint, type id varint, props string
+///
+/// Nodes are in document order, so the tree is implied by their depths as in the text format. Props are the node's
+/// attributes as in the JSON Lines format, described by value, empty if it has none.
+final class StructureBinaryWriter implements StructureVisitor
+{
+  static final byte[] HEADER = { 'D', 'X', 'S', 1 };
+  static final int TYPE_DEFINITION_TAG = 1;
+  static final int NODE_TAG = 2;
+
+  private final OutputStream os;
+  private final Map<Class<?>, Integer> typeIds = new HashMap<>();
+  private final ByteArrayOutputStream payload = new ByteArrayOutputStream(); // of the record being written
+
+  StructureBinaryWriter(OutputStream os) throws IOException
+  {
+    this.os = os;
+    os.write(HEADER);
+  }
+
+  @Override
+  public void startNode(Object node, int depth) throws IOException
+  {
+    @Nullable Integer typeId = typeIds.get(node.getClass());
+    if (typeId == null)
+    {
+      typeId = typeIds.size();
+      typeIds.put(node.getClass(), typeId);
+      payload.reset();
+      writeVarint(payload, typeId);
+      writeString(payload, node.getClass().getSimpleName());
+      writeRecord(TYPE_DEFINITION_TAG);
+    }
+
+    payload.reset();
+    writeVarint(payload, depth);
+    writeVarint(payload, typeId);
+    writeString(payload, DocxMainPartBodyStructurePrinter.attributesValueDescr(node));
+    writeRecord(NODE_TAG);
+  }
+
+  @Override
+  public void endNode(Object node, int depth) {}
+
+  private void writeRecord(int tag) throws IOException
+  {
+    os.write(tag);
+    writeVarint(os, payload.size());
+    payload.writeTo(os);
+  }
+
+  static void writeVarint(OutputStream os, int value) throws IOException
+  {
+    while ((value & ~0x7F) != 0)
+    {
+      os.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    os.write(value);
+  }
+
+  static void writeString(OutputStream os, String s) throws IOException
+  {
+    byte[] bytes = s.getBytes(UTF_8);
+    writeVarint(os, bytes.length);
+    os.write(bytes);
+  }
+}
@@ -0,0 +1,404 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import bi.util.CommandArgs;
+
+import static bi.docxutils.Hashes.finish;
+import static bi.docxutils.Hashes.hashString;
+import static bi.docxutils.Hashes.mix;
+import static bi.util.Nullables.nonNull;
+
+/// Compares the body structures of two versions of a document, reporting changed, deleted and inserted nodes with
+/// their paths. The XML of both documents' top level body items is hashed first, without unmarshalling anything, and
+/// the item lists are aligned by these hashes, so only the items left unmatched are read, with the streaming
+/// traversal, into structure trees. Each node of these trees carries a hash of its whole subtree, built from the
+/// nodes' value descriptions, so identical subtrees are recognized with a single comparison and never descended into.
+/// Sibling lists are aligned by hash with Myers' diff after trimming their common prefix and suffix, so the work done
+/// is proportional to the size of the differences rather than of the documents.
+///
+/// Report lines are of the forms
+///
+///     ~ <path>            a node whose own description changed, followed by its old and new descriptions
+///     - <path> <descr>    a deleted subtree, path as in the old document
+///     + <path> <descr>    an inserted subtree, path as in the new document
+///
+/// where paths are sequences of /Type[index] steps, index being the 0-based position among all siblings. The
+/// --streaming option is accepted for compatibility, the streaming traversal being the only one used.
+final class StructureDiff
+{
+  // Beyond this many edits between two sibling lists, differing siblings are just paired positionally.
+  private static final int MAX_EDIT_DISTANCE = 1000;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("streaming"));
+    List<String> fileArgs = cmdArgs.positional();
+
+    if (fileArgs.size() != 2 && fileArgs.size() != 3)
+      throw new RuntimeException("Expected 2 or 3 arguments: [--streaming] <old-docx-file> <new-docx-file> [output-file]");
+
+    File oldDocx = new File(fileArgs.get(0));
+    File newDocx = new File(fileArgs.get(1));
+
+    try (BufferedWriter bw = fileArgs.size() == 3
+          ? new BufferedWriter(new FileWriter(fileArgs.get(2)))
+          : new BufferedWriter(new OutputStreamWriter(System.out)))
+    {
+      writeDiff(oldDocx, newDocx, bw);
+    }
+  }
+
+  /// A node of a structure tree, with the hash of its description and those of its descendants.
+  record Node(String type, String descr, List<Node> children, long hash, int size) {}
+
+  /// Write the differences between the documents' body structures.
+  static void writeDiff(File oldDocx, File newDocx, Writer w) throws IOException, InterruptedException
+  {
+    List<long[]> itemHashes = concurrently(
+      () -> StreamingStructurePrinter.bodyItemHashes(oldDocx, stats(oldDocx)),
+      () -> StreamingStructurePrinter.bodyItemHashes(newDocx, stats(newDocx))
+    );
+    long[] oldHashes = itemHashes.get(0), newHashes = itemHashes.get(1);
+    List<Edit> edits = alignHashes(oldHashes, newHashes);
+
+    BitSet oldItems = new BitSet(), newItems = new BitSet();
+    int i = 0, j = 0;
+    for (Edit e : edits)
+    {
+      switch (e)
+      {
+        case KEEP -> { ++i; ++j; }
+        case DELETE -> oldItems.set(i++);
+        case INSERT -> newItems.set(j++);
+      }
+    }
+
+    List<List<@Nullable Node>> items = concurrently(
+      () -> readBodyItems(oldDocx, oldItems, oldHashes.length),
+      () -> readBodyItems(newDocx, newItems, newHashes.length)
+    );
+
+    StructureDiff diff = new StructureDiff(w);
+    diff.compareChildren(items.get(0), items.get(1), edits, "", "");
+
+    if (diff.changed + diff.deleted + diff.inserted == 0)
+      w.write("No differences.\n");
+    else
+      w.write("\n" + diff.changed + " changed, " + diff.deleted + " deleted, " + diff.inserted + " inserted\n");
+  }
+
+  /// The structure trees of the document's top level body items whose indexes are set, at their indexes in a list of
+  /// all itemCount items, the others being null.
+  static List<@Nullable Node> readBodyItems(File docxFile, BitSet items, int itemCount) throws IOException
+  {
+    List<@Nullable Node> res = new ArrayList<>(itemCount);
+    for (int i = 0; i < itemCount; ++i)
+      res.add(null);
+    if (items.isEmpty())
+      return res;
+
+    TreeBuilder builder = new TreeBuilder();
+    StreamingStructurePrinter.visitBodyItems(docxFile, items, builder, stats(docxFile));
+    List<Node> read = builder.root().children();
+    if (read.size() != items.cardinality())
+      throw new IOException("Read " + read.size() + " of " + items.cardinality() + " body items of " + docxFile + ".");
+
+    int r = 0;
+    for (int i = items.nextSetBit(0); i >= 0; i = items.nextSetBit(i + 1))
+      res.set(i, read.get(r++));
+    return res;
+  }
+
+  private static ToolStats stats(File docxFile)
+  {
+    return new ToolStats("diff", docxFile.getPath(), false);
+  }
+
+  /// Run the tasks for the old and the new document concurrently, they're independent.
+  private static <T> List<T> concurrently(Callable<T> oldTask, Callable<T> newTask)
+    throws IOException, InterruptedException
+  {
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+    {
+      Future<T> oldResult = executor.submit(oldTask);
+      Future<T> newResult = executor.submit(newTask);
+      return List.of(oldResult.get(), newResult.get());
+    }
+    catch (ExecutionException e)
+    {
+      switch (e.getCause())
+      {
+        case IOException ioe -> throw ioe;
+        case RuntimeException re -> throw re;
+        case null, default -> throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private final Writer w;
+  private int changed;
+  private int deleted;
+  private int inserted;
+
+  private StructureDiff(Writer w)
+  {
+    this.w = w;
+  }
+
+  private void compare(Node oldNode, Node newNode, String oldPath, String newPath) throws IOException
+  {
+    if (oldNode.hash() == newNode.hash())
+      return;
+
+    if (!oldNode.descr().equals(newNode.descr()))
+    {
+      w.write("~ " + newPath + "\n");
+      w.write("    " + oldNode.descr() + "\n");
+      w.write("  -> " + newNode.descr() + "\n");
+      ++changed;
+    }
+
+    compareChildren(
+      oldNode.children(), newNode.children(), alignHashes(hashes(oldNode.children()), hashes(newNode.children())),
+      oldPath, newPath
+    );
+  }
+
+  /// Compare the children not kept by the edits, which may be null where kept.
+  private void compareChildren(
+      List<? extends @Nullable Node> oldChildren,
+      List<? extends @Nullable Node> newChildren,
+      List<Edit> edits,
+      String oldPath,
+      String newPath
+    )
+    throws IOException
+  {
+    int i = 0, j = 0; // positions in old and new children
+    for (int e = 0; e < edits.size(); )
+    {
+      if (edits.get(e) == Edit.KEEP) { ++i; ++j; ++e; continue; }
+
+      // Pair up the deletions and insertions of a run of edits, so a modified node is reported within its subtree
+      // instead of as a deletion and insertion of the whole subtree.
+      int deletes = 0, inserts = 0;
+      for (; e < edits.size() && edits.get(e) != Edit.KEEP; ++e)
+      {
+        if (edits.get(e) == Edit.DELETE) ++deletes;
+        else ++inserts;
+      }
+
+      for (int p = 0; p < Math.max(deletes, inserts); ++p)
+      {
+        @Nullable Node oldChild = p < deletes ? oldChildren.get(i + p) : null;
+        @Nullable Node newChild = p < inserts ? newChildren.get(j + p) : null;
+        String oldChildPath = p < deletes ? childPath(oldPath, nonNull(oldChild), i + p) : "";
+        String newChildPath = p < inserts ? childPath(newPath, nonNull(newChild), j + p) : "";
+
+        if (oldChild != null && newChild != null && oldChild.type().equals(newChild.type()))
+          compare(oldChild, newChild, oldChildPath, newChildPath);
+        else
+        {
+          if (oldChild != null)
+            report('-', oldChildPath, oldChild);
+          if (newChild != null)
+            report('+', newChildPath, newChild);
+        }
+      }
+
+      i += deletes;
+      j += inserts;
+    }
+  }
+
+  private void report(char kind, String path, Node node) throws IOException
+  {
+    w.write(kind + " " + path + " " + node.descr());
+    if (node.size() > 1)
+      w.write(" (" + node.size() + " nodes)");
+    w.write('\n');
+
+    if (kind == '-') ++deleted;
+    else ++inserted;
+  }
+
+  private static String childPath(String parentPath, Node child, int index)
+  {
+    return parentPath + "/" + child.type() + "[" + index + "]";
+  }
+
+  private enum Edit { KEEP, DELETE, INSERT }
+
+  /// A shortest edit script turning the old hashes into the new ones, those of nodes or of body items. If the lists
+  /// differ by more than MAX_EDIT_DISTANCE edits, everything between their common prefix and suffix is deleted and
+  /// inserted.
+  private static List<Edit> alignHashes(long[] a, long[] b)
+  {
+    int prefix = 0;
+    while (prefix < a.length && prefix < b.length && a[prefix] == b[prefix])
+      ++prefix;
+
+    int suffix = 0;
+    while (suffix < a.length - prefix && suffix < b.length - prefix &&
+           a[a.length - 1 - suffix] == b[b.length - 1 - suffix])
+      ++suffix;
+
+    long[] aHashes = Arrays.copyOfRange(a, prefix, a.length - suffix);
+    long[] bHashes = Arrays.copyOfRange(b, prefix, b.length - suffix);
+
+    List<Edit> res = new ArrayList<>(a.length + b.length);
+    for (int i = 0; i < prefix; ++i)
+      res.add(Edit.KEEP);
+
+    @Nullable List<Edit> middleEdits = myersEdits(aHashes, bHashes, MAX_EDIT_DISTANCE);
+    if (middleEdits != null)
+      res.addAll(middleEdits);
+    else
+    {
+      for (int i = 0; i < aHashes.length; ++i)
+        res.add(Edit.DELETE);
+      for (int i = 0; i < bHashes.length; ++i)
+        res.add(Edit.INSERT);
+    }
+
+    for (int i = 0; i < suffix; ++i)
+      res.add(Edit.KEEP);
+
+    return res;
+  }
+
+  private static long[] hashes(List<Node> nodes)
+  {
+    long[] res = new long[nodes.size()];
+    for (int i = 0; i < res.length; ++i)
+      res[i] = nodes.get(i).hash();
+    return res;
+  }
+
+  /// Myers' O((N+M)D) shortest edit script, or null if more than maxEdits edits are needed.
+  private static @Nullable List<Edit> myersEdits(long[] a, long[] b, int maxEdits)
+  {
+    int n = a.length, m = b.length;
+    int max = Math.min(n + m, maxEdits);
+    int offset = max + 1;
+    int[] v = new int[2 * max + 3]; // furthest x reached on each diagonal k = x - y, at index k + offset
+    List<int[]> trace = new ArrayList<>(); // v for diagonals -d..d after each step d
+
+    for (int d = 0; d <= max; ++d)
+    {
+      for (int k = -d; k <= d; k += 2)
+      {
+        int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+          ? v[offset + k + 1]      // down from diagonal k + 1: an insertion
+          : v[offset + k - 1] + 1; // right from diagonal k - 1: a deletion
+        int y = x - k;
+        while (x < n && y < m && a[x] == b[y]) { ++x; ++y; }
+        v[offset + k] = x;
+
+        if (x >= n && y >= m)
+        {
+          trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+          return backtrack(trace, n, m);
+        }
+      }
+      trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+    }
+
+    return null;
+  }
+
+  private static List<Edit> backtrack(List<int[]> trace, int n, int m)
+  {
+    Deque<Edit> edits = new ArrayDeque<>();
+    int x = n, y = m;
+
+    for (int d = trace.size() - 1; d > 0; --d)
+    {
+      int[] prevV = trace.get(d - 1); // diagonals -(d-1)..(d-1)
+      int k = x - y;
+      int prevK = k == -d || (k != d && prevV[k - 1 + d - 1] < prevV[k + 1 + d - 1]) ? k + 1 : k - 1;
+      int prevX = prevV[prevK + d - 1];
+      int prevY = prevX - prevK;
+
+      while (x > prevX && y > prevY) { edits.push(Edit.KEEP); --x; --y; }
+      edits.push(x == prevX ? Edit.INSERT : Edit.DELETE);
+      x = prevX;
+      y = prevY;
+    }
+    for (; x > 0; --x)
+      edits.push(Edit.KEEP);
+
+    return new ArrayList<>(edits);
+  }
+
+  /// Builds the structure tree from visited nodes, hashing each subtree as its node ends.
+  private static final class TreeBuilder implements StructureVisitor
+  {
+    private static final class PendingNode
+    {
+      final String type;
+      final String descr;
+      final List<Node> children = new ArrayList<>();
+
+      PendingNode(String type, String descr)
+      {
+        this.type = type;
+        this.descr = descr;
+      }
+
+      Node toNode()
+      {
+        long hash = hashString(descr);
+        int size = 1;
+        for (Node child : children)
+        {
+          hash = mix(hash, child.hash());
+          size += child.size();
+        }
+        return new Node(type, descr, List.copyOf(children), finish(hash), size);
+      }
+    }
+
+    private final Deque<PendingNode> openNodes = new ArrayDeque<>(List.of(new PendingNode("Body", "Body")));
+
+    @Override
+    public void startNode(Object node, int depth)
+    {
+      openNodes.push(new PendingNode(node.getClass().getSimpleName(), DocxMainPartBodyStructurePrinter.nodeValueDescr(node)));
+    }
+
+    @Override
+    public void endNode(Object node, int depth)
+    {
+      Node n = openNodes.pop().toNode();
+      nonNull(openNodes.peek()).children.add(n);
+    }
+
+    Node root()
+    {
+      if (openNodes.size() != 1)
+        throw new IllegalStateException("Structure traversal ended with unclosed nodes.");
+      return openNodes.getFirst().toNode();
+    }
+  }
+}
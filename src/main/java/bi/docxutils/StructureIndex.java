@@ -0,0 +1,593 @@
+package bi.docxutils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.CTTblPrBase.TblStyle;
+import org.docx4j.wml.FldChar;
+import org.docx4j.wml.P;
+import org.docx4j.wml.P.Hyperlink;
+import org.docx4j.wml.PPr;
+import org.docx4j.wml.PPrBase.PStyle;
+import org.docx4j.wml.R;
+import org.docx4j.wml.RPr;
+import org.docx4j.wml.RStyle;
+import org.docx4j.wml.STFldCharType;
+import org.docx4j.wml.Tbl;
+import org.docx4j.wml.TblPr;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// A persistent index of where bookmarks, hyperlink anchors, paragraph, run and table style usages and field chars
+/// occur in a corpus of documents, for answering questions like "which documents contain bookmark X" without
+/// traversing any of them.
+///
+///     update [--streaming] [--max-parallel=n] <index-file> <input-dir|input-list-file>
+///     query <index-file> <kind> [value]
+///
+/// Update makes the index cover exactly the given documents, reusing the existing entries of documents whose size and
+/// modification time are unchanged and only traversing new and changed ones. Query lists the documents and top level
+/// body item indexes where the value occurs, or without a value lists all values of the kind with their counts.
+///
+/// The index is a single file, memory-mapped for queries, which binary search its sorted term table so they don't
+/// depend on the corpus size beyond the matches. It's replaced atomically on update, so queries can run meanwhile.
+/// All offsets and counts are big-endian ints:
+///
+///     header      "DXI" version, doc count, term count, doc table offset, term table offset
+///     data        doc path and term key UTF-8 bytes, and postings of (doc index, body item index) int pairs
+///     doc table   path offset, path length, file size (long), modification millis (long); sorted as given
+///     term table  key offset, key length, postings offset, postings count; sorted by key bytes
+///
+/// where a term's key is its kind name, a 0 byte and its value. Postings are sorted and hold each body item only
+/// once per term.
+final class StructureIndex
+{
+  private static final byte[] MAGIC = { 'D', 'X', 'I', 1 };
+  private static final int HEADER_SIZE = MAGIC.length + 4 * 4;
+  private static final int DOC_ENTRY_SIZE = 4 + 4 + 8 + 8;
+  private static final int TERM_ENTRY_SIZE = 4 * 4;
+
+  enum Kind
+  {
+    BOOKMARK, BOOKMARK_ID, ANCHOR, PSTYLE, RSTYLE, TBLSTYLE, FLDCHAR;
+
+    final String keyName = name().toLowerCase().replace('_', '-');
+
+    static Kind fromKeyName(String keyName)
+    {
+      for (Kind k : values())
+        if (k.keyName.equals(keyName))
+          return k;
+      throw new RuntimeException("Unknown kind '" + keyName + "', expected one of: " + kindNames());
+    }
+
+    static String kindNames()
+    {
+      return String.join("|", Arrays.stream(values()).map(k -> k.keyName).toList());
+    }
+
+    byte[] keyPrefix()
+    {
+      return (keyName + '\0').getBytes(UTF_8);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("streaming", "max-parallel"));
+    List<String> posArgs = cmdArgs.positional();
+    String command = posArgs.isEmpty() ? "" : posArgs.get(0);
+
+    if (command.equals("update") && posArgs.size() == 3)
+    {
+      int maxParallel = cmdArgs.value("max-parallel") instanceof String n
+        ? Integer.parseInt(n)
+        : Runtime.getRuntime().availableProcessors();
+      List<Path> docxFiles = DocxBatchRunner.inputFiles(Path.of(posArgs.get(2)));
+      update(Path.of(posArgs.get(1)), docxFiles, cmdArgs.has("streaming"), maxParallel);
+    }
+    else if (command.equals("query") && (posArgs.size() == 3 || posArgs.size() == 4))
+    {
+      Kind kind = Kind.fromKeyName(posArgs.get(2));
+      try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out));
+           IndexFile index = IndexFile.open(Path.of(posArgs.get(1))))
+      {
+        if (posArgs.size() == 4)
+          writeOccurrences(index, kind, posArgs.get(3), bw);
+        else
+          writeValues(index, kind, bw);
+      }
+    }
+    else
+      throw new RuntimeException(
+        "Expected arguments: update [--streaming] [--max-parallel=n] <index-file> <input-dir|input-list-file>\n" +
+        "                 or query <index-file> <" + Kind.kindNames() + "> [value]"
+      );
+  }
+
+  /// Make the index cover the given documents, traversing only those not already indexed at their current size and
+  /// modification time. Documents failing to load are reported and left out of the index.
+  static void update(Path indexFile, List<Path> docxFiles, boolean streaming, int maxParallel)
+    throws IOException, InterruptedException
+  {
+    long startNanos = System.nanoTime();
+
+    // The documents whose size and modification time could be read, with their files.
+    List<DocEntry> docs = new ArrayList<>();
+    List<Path> docFiles = new ArrayList<>();
+    int unreadable = 0;
+    for (Path docxFile : docxFiles)
+    {
+      try
+      {
+        docs.add(new DocEntry(docxFile.toAbsolutePath().normalize().toString(), Files.size(docxFile),
+                              Files.getLastModifiedTime(docxFile).toMillis()));
+        docFiles.add(docxFile);
+      }
+      catch (IOException e)
+      {
+        System.err.println("FAILED " + docxFile + ": " + e);
+        ++unreadable;
+      }
+    }
+
+    @Nullable IndexFile oldIndex = Files.exists(indexFile) ? IndexFile.open(indexFile) : null;
+    try
+    {
+      // Match documents with their entries in the old index, if unchanged.
+      Map<String, Integer> oldDocIndexes = new HashMap<>();
+      if (oldIndex != null)
+      {
+        for (int d = 0; d < oldIndex.docCount(); ++d)
+          oldDocIndexes.put(oldIndex.docPath(d), d);
+      }
+      int[] oldDocIndex = new int[docs.size()];
+      for (int d = 0; d < docs.size(); ++d)
+      {
+        DocEntry doc = docs.get(d);
+        @Nullable Integer oldD = oldDocIndexes.get(doc.path());
+        oldDocIndex[d] = oldIndex != null && oldD != null &&
+                         oldIndex.docSize(oldD) == doc.size() && oldIndex.docModifiedMillis(oldD) == doc.modifiedMillis()
+          ? oldD
+          : -1;
+      }
+
+      // Traverse the new and changed documents concurrently.
+      List<@Nullable Future<TermCollector>> traversals = new ArrayList<>();
+      Semaphore traversalPermits = new Semaphore(maxParallel);
+      Map<String, PostingList> postings = new HashMap<>();
+      List<DocEntry> indexedDocs = new ArrayList<>();
+      int[] newDocIndexByOld = new int[oldIndex != null ? oldIndex.docCount() : 0];
+      Arrays.fill(newDocIndexByOld, -1);
+      int reused = 0, traversed = 0, failed = unreadable;
+
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+      {
+        for (int d = 0; d < docs.size(); ++d)
+        {
+          Path docxFile = docFiles.get(d);
+          traversals.add(oldDocIndex[d] != -1 ? null : executor.submit(() ->
+          {
+            traversalPermits.acquire();
+            try
+            {
+              TermCollector terms = new TermCollector();
+              DocxMainPartBodyStructurePrinter.visitStructure(docxFile.toFile(), streaming, terms);
+              return terms;
+            }
+            finally { traversalPermits.release(); }
+          }));
+        }
+
+        for (int d = 0; d < docs.size(); ++d)
+        {
+          @Nullable Future<TermCollector> traversal = traversals.get(d);
+          int newD = indexedDocs.size();
+          if (traversal == null)
+          {
+            newDocIndexByOld[oldDocIndex[d]] = newD;
+            ++reused;
+          }
+          else
+          {
+            try
+            {
+              traversal.get().addPostings(newD, postings);
+              ++traversed;
+            }
+            catch (ExecutionException e)
+            {
+              System.err.println("FAILED " + docs.get(d).path() + ": " + e.getCause());
+              ++failed;
+              continue;
+            }
+          }
+          indexedDocs.add(docs.get(d));
+        }
+      }
+
+      if (oldIndex != null && reused > 0)
+        oldIndex.addPostings(newDocIndexByOld, postings);
+
+      write(indexFile, indexedDocs, postings);
+
+      System.out.printf(
+        "%d documents: %d unchanged, %d indexed, %d failed; %d terms; %d ms elapsed%n",
+        docxFiles.size(), reused, traversed, failed, postings.size(), (System.nanoTime() - startNanos) / 1_000_000
+      );
+    }
+    finally
+    {
+      if (oldIndex != null)
+        oldIndex.close();
+    }
+  }
+
+  record DocEntry(String path, long size, long modifiedMillis) {}
+
+  /// Write the index to a temporary file and move it over the index file.
+  private static void write(Path indexFile, List<DocEntry> docs, Map<String, PostingList> postings) throws IOException
+  {
+    List<byte[]> docPaths = docs.stream().map(d -> d.path().getBytes(UTF_8)).toList();
+
+    List<byte[]> keys = new ArrayList<>();
+    List<PostingList> keyPostings = new ArrayList<>();
+    postings.entrySet().stream()
+      .map(e -> Map.entry(e.getKey().getBytes(UTF_8), e.getValue()))
+      .sorted((e1, e2) -> Arrays.compareUnsigned(e1.getKey(), e2.getKey()))
+      .forEach(e -> { keys.add(e.getKey()); keyPostings.add(e.getValue()); });
+
+    long dataSize = 0;
+    for (byte[] p : docPaths) dataSize += p.length;
+    for (int t = 0; t < keys.size(); ++t) dataSize += keys.get(t).length + 8L * keyPostings.get(t).size();
+    long docTableOffset = HEADER_SIZE + dataSize;
+    long termTableOffset = docTableOffset + (long)DOC_ENTRY_SIZE * docs.size();
+    if (termTableOffset + (long)TERM_ENTRY_SIZE * keys.size() > Integer.MAX_VALUE)
+      throw new RuntimeException("Index would exceed the 2 GB index file size limit.");
+
+    Path tempFile = Files.createTempFile(nonNull(indexFile.toAbsolutePath().getParent()), "structure-index", ".tmp");
+    try
+    {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+      {
+        out.write(MAGIC);
+        out.writeInt(docs.size());
+        out.writeInt(keys.size());
+        out.writeInt((int)docTableOffset);
+        out.writeInt((int)termTableOffset);
+
+        int[] docPathOffsets = new int[docs.size()];
+        for (int d = 0; d < docs.size(); ++d)
+        {
+          docPathOffsets[d] = out.size();
+          out.write(docPaths.get(d));
+        }
+
+        int[] keyOffsets = new int[keys.size()];
+        int[] postingsOffsets = new int[keys.size()];
+        for (int t = 0; t < keys.size(); ++t)
+        {
+          keyOffsets[t] = out.size();
+          out.write(keys.get(t));
+          postingsOffsets[t] = out.size();
+          keyPostings.get(t).writeSorted(out);
+        }
+
+        for (int d = 0; d < docs.size(); ++d)
+        {
+          out.writeInt(docPathOffsets[d]);
+          out.writeInt(docPaths.get(d).length);
+          out.writeLong(docs.get(d).size());
+          out.writeLong(docs.get(d).modifiedMillis());
+        }
+
+        for (int t = 0; t < keys.size(); ++t)
+        {
+          out.writeInt(keyOffsets[t]);
+          out.writeInt(keys.get(t).length);
+          out.writeInt(postingsOffsets[t]);
+          out.writeInt(keyPostings.get(t).size());
+        }
+      }
+
+      Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally { Files.deleteIfExists(tempFile); }
+  }
+
+  /// For each document containing the value, its path and the indexes of the top level body items containing it.
+  static void writeOccurrences(IndexFile index, Kind kind, String value, Writer w) throws IOException
+  {
+    byte[] key = (kind.keyName + '\0' + value).getBytes(UTF_8);
+    int t = index.lowerBound(key);
+    if (t == index.termCount() || index.compareKey(t, key) != 0)
+      return;
+
+    int count = index.postingsCount(t);
+    for (int p = 0; p < count; )
+    {
+      int doc = index.postingDoc(t, p);
+      w.write(index.docPath(doc));
+      w.write(':');
+      for (; p < count && index.postingDoc(t, p) == doc; ++p)
+        w.write(" " + index.postingBodyItem(t, p));
+      w.write('\n');
+    }
+  }
+
+  /// All values of the kind with the numbers of documents and body items containing them.
+  static void writeValues(IndexFile index, Kind kind, Writer w) throws IOException
+  {
+    byte[] prefix = kind.keyPrefix();
+    for (int t = index.lowerBound(prefix); t < index.termCount() && index.keyStartsWith(t, prefix); ++t)
+    {
+      int count = index.postingsCount(t), docs = 0;
+      for (int p = 0; p < count; ++p)
+        if (p == 0 || index.postingDoc(t, p) != index.postingDoc(t, p - 1))
+          ++docs;
+      w.write(index.keyValue(t, prefix.length) + "  " + docs + " documents, " + count + " body items\n");
+    }
+  }
+
+  /// Collects the terms of a document by top level body item, as it's traversed.
+  private static final class TermCollector implements StructureVisitor
+  {
+    private final Map<String, PostingList> bodyItemsByKey = new HashMap<>();
+    private int bodyItem = -1;
+
+    @Override
+    public void startNode(Object node, int depth)
+    {
+      if (depth == 0)
+        ++bodyItem;
+
+      switch (node)
+      {
+        case CTBookmark b ->
+        {
+          if (b.getName() instanceof String name) add(Kind.BOOKMARK, name);
+          if (b.getId() instanceof BigInteger id) add(Kind.BOOKMARK_ID, id.toString());
+        }
+        case Hyperlink h ->
+          { if (h.getAnchor() instanceof String anchor) add(Kind.ANCHOR, anchor); }
+        case P p ->
+          { if (p.getPPr() instanceof PPr pr && pr.getPStyle() instanceof PStyle s) add(Kind.PSTYLE, s.getVal()); }
+        case R r ->
+          { if (r.getRPr() instanceof RPr pr && pr.getRStyle() instanceof RStyle s) add(Kind.RSTYLE, s.getVal()); }
+        case Tbl t ->
+          { if (t.getTblPr() instanceof TblPr pr && pr.getTblStyle() instanceof TblStyle s) add(Kind.TBLSTYLE, s.getVal()); }
+        case FldChar f ->
+          { if (f.getFldCharType() instanceof STFldCharType type) add(Kind.FLDCHAR, type.value()); }
+        default -> {}
+      }
+    }
+
+    @Override
+    public void endNode(Object node, int depth) {}
+
+    private void add(Kind kind, @Nullable String value)
+    {
+      if (value == null)
+        return;
+      PostingList bodyItems = bodyItemsByKey.computeIfAbsent(kind.keyName + '\0' + value, k -> new PostingList());
+      if (bodyItems.size() == 0 || bodyItems.last() != bodyItem) // traversal is in body item order
+        bodyItems.add(bodyItem);
+    }
+
+    void addPostings(int doc, Map<String, PostingList> postings)
+    {
+      bodyItemsByKey.forEach((key, bodyItems) ->
+      {
+        PostingList keyPostings = postings.computeIfAbsent(key, k -> new PostingList());
+        for (int i = 0; i < bodyItems.size(); ++i)
+          keyPostings.add(posting(doc, (int)bodyItems.get(i)));
+      });
+    }
+  }
+
+  private static long posting(int doc, int bodyItem)
+  {
+    return (long)doc << 32 | bodyItem;
+  }
+
+  /// A growable list of postings packed as longs, which sort as their (doc, body item) pairs do.
+  private static final class PostingList
+  {
+    private long[] values = new long[4];
+    private int size;
+
+    void add(long value)
+    {
+      if (size == values.length)
+        values = Arrays.copyOf(values, 2 * size);
+      values[size++] = value;
+    }
+
+    long get(int i) { return values[i]; }
+
+    long last() { return values[size - 1]; }
+
+    int size() { return size; }
+
+    void writeSorted(DataOutputStream out) throws IOException
+    {
+      Arrays.sort(values, 0, size);
+      for (int i = 0; i < size; ++i)
+      {
+        out.writeInt((int)(values[i] >>> 32));
+        out.writeInt((int)values[i]);
+      }
+    }
+  }
+
+  /// A memory-mapped index file.
+  static final class IndexFile implements AutoCloseable
+  {
+    private final FileChannel channel;
+    private final ByteBuffer buf;
+    private final int docCount;
+    private final int termCount;
+    private final int docTableOffset;
+    private final int termTableOffset;
+
+    private IndexFile(FileChannel channel, ByteBuffer buf)
+    {
+      this.channel = channel;
+      this.buf = buf;
+      this.docCount = buf.getInt(MAGIC.length);
+      this.termCount = buf.getInt(MAGIC.length + 4);
+      this.docTableOffset = buf.getInt(MAGIC.length + 8);
+      this.termTableOffset = buf.getInt(MAGIC.length + 12);
+    }
+
+    static IndexFile open(Path indexFile) throws IOException
+    {
+      FileChannel channel = FileChannel.open(indexFile);
+      try
+      {
+        ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        byte[] magic = new byte[MAGIC.length];
+        if (buf.limit() >= HEADER_SIZE)
+          buf.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC))
+          throw new IOException("Not a structure index file of this version: " + indexFile);
+        return new IndexFile(channel, buf);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        channel.close();
+        throw e;
+      }
+    }
+
+    int docCount() { return docCount; }
+
+    String docPath(int doc)
+    {
+      int entry = docTableOffset + doc * DOC_ENTRY_SIZE;
+      return string(buf.getInt(entry), buf.getInt(entry + 4));
+    }
+
+    long docSize(int doc) { return buf.getLong(docTableOffset + doc * DOC_ENTRY_SIZE + 8); }
+
+    long docModifiedMillis(int doc) { return buf.getLong(docTableOffset + doc * DOC_ENTRY_SIZE + 16); }
+
+    int termCount() { return termCount; }
+
+    private int keyOffset(int term) { return buf.getInt(termTableOffset + term * TERM_ENTRY_SIZE); }
+
+    private int keyLength(int term) { return buf.getInt(termTableOffset + term * TERM_ENTRY_SIZE + 4); }
+
+    private int postingsOffset(int term) { return buf.getInt(termTableOffset + term * TERM_ENTRY_SIZE + 8); }
+
+    int postingsCount(int term) { return buf.getInt(termTableOffset + term * TERM_ENTRY_SIZE + 12); }
+
+    int postingDoc(int term, int posting) { return buf.getInt(postingsOffset(term) + 8 * posting); }
+
+    int postingBodyItem(int term, int posting) { return buf.getInt(postingsOffset(term) + 8 * posting + 4); }
+
+    /// The term's key after the given number of bytes.
+    String keyValue(int term, int skippedBytes)
+    {
+      return string(keyOffset(term) + skippedBytes, keyLength(term) - skippedBytes);
+    }
+
+    /// Compares the term's key with the given bytes as unsigned bytes, without copying it out of the mapping.
+    int compareKey(int term, byte[] key)
+    {
+      int offset = keyOffset(term), length = keyLength(term);
+      for (int i = 0; i < length && i < key.length; ++i)
+      {
+        int c = Byte.compareUnsigned(buf.get(offset + i), key[i]);
+        if (c != 0)
+          return c;
+      }
+      return Integer.compare(length, key.length);
+    }
+
+    boolean keyStartsWith(int term, byte[] prefix)
+    {
+      int offset = keyOffset(term);
+      if (keyLength(term) < prefix.length)
+        return false;
+      for (int i = 0; i < prefix.length; ++i)
+        if (buf.get(offset + i) != prefix[i])
+          return false;
+      return true;
+    }
+
+    /// The first term whose key is not less than the given one.
+    int lowerBound(byte[] key)
+    {
+      int lo = 0, hi = termCount;
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        if (compareKey(mid, key) < 0)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo;
+    }
+
+    /// Add the postings of the documents being kept to the postings of a new index, with their new doc indexes.
+    void addPostings(int[] newDocIndexByOld, Map<String, PostingList> postings)
+    {
+      for (int t = 0; t < termCount; ++t)
+      {
+        @Nullable PostingList keyPostings = null;
+        for (int p = 0, count = postingsCount(t); p < count; ++p)
+        {
+          int newDoc = newDocIndexByOld[postingDoc(t, p)];
+          if (newDoc == -1)
+            continue;
+          if (keyPostings == null)
+            keyPostings = postings.computeIfAbsent(keyValue(t, 0), k -> new PostingList());
+          keyPostings.add(posting(newDoc, postingBodyItem(t, p)));
+        }
+      }
+    }
+
+    private String string(int offset, int length)
+    {
+      byte[] bytes = new byte[length];
+      buf.get(offset, bytes);
+      return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+
+  private StructureIndex() {}
+}
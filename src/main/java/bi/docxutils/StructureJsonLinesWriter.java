@@ -0,0 +1,80 @@
+package bi.docxutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/// Writes the structure as JSON Lines, one object per node in document order:
+///
+///     {"path":"/Tbl[200]/Tr[0]/Tc[1]","depth":2,"type":"Tc","props":"tcw: { type: dxa, width: 3000 }"}
+///
+/// with paths as in StructureDiff and props being the node's attributes as in the text format, but described by value
+/// as in nodeValueDescr so that equal nodes have equal props across documents and runs, empty if it has none.
+/// Each line is written as its node is visited, the only state kept being the current path.
+final class StructureJsonLinesWriter implements StructureVisitor
+{
+  private final Writer w;
+  private final StringBuilder path = new StringBuilder();
+  private int[] pathLengths = new int[16]; // length of the path of the open node at each depth
+  private int[] childCounts = new int[16]; // children seen so far of the open node at each depth, the body for 0
+  private final StringBuilder line = new StringBuilder();
+
+  StructureJsonLinesWriter(Writer w)
+  {
+    this.w = w;
+  }
+
+  @Override
+  public void startNode(Object node, int depth) throws IOException
+  {
+    if (depth + 1 >= childCounts.length)
+    {
+      childCounts = Arrays.copyOf(childCounts, 2 * (depth + 1));
+      pathLengths = Arrays.copyOf(pathLengths, childCounts.length);
+    }
+
+    String type = node.getClass().getSimpleName();
+    path.setLength(depth == 0 ? 0 : pathLengths[depth - 1]);
+    path.append('/').append(type).append('[').append(childCounts[depth]++).append(']');
+    pathLengths[depth] = path.length();
+    childCounts[depth + 1] = 0;
+
+    line.setLength(0);
+    line.append("{\"path\":");
+    appendJsonString(line, path);
+    line.append(",\"depth\":").append(depth).append(",\"type\":");
+    appendJsonString(line, type);
+    line.append(",\"props\":");
+    appendJsonString(line, DocxMainPartBodyStructurePrinter.attributesValueDescr(node));
+    line.append("}\n");
+    w.append(line);
+  }
+
+  @Override
+  public void endNode(Object node, int depth) {}
+
+  static void appendJsonString(StringBuilder sb, CharSequence s)
+  {
+    sb.append('"');
+    for (int i = 0; i < s.length(); ++i)
+    {
+      char c = s.charAt(i);
+      switch (c)
+      {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default ->
+        {
+          if (c < 0x20)
+            sb.append(String.format("\\u%04x", (int)c));
+          else
+            sb.append(c);
+        }
+      }
+    }
+    sb.append('"');
+  }
+}
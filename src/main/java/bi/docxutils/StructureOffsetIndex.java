@@ -0,0 +1,380 @@
+package bi.docxutils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.CTMarkupRange;
+import org.docx4j.wml.Tbl;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// A sidecar index of byte offsets into a text structure output file, written alongside it with --offset-index, so
+/// a top level body item, a table or a bookmark's body items can be read from a dump of millions of lines without
+/// scanning it.
+///
+///     <structure-file> item <n>
+///     <structure-file> table <n>
+///     <structure-file> bookmark <name>
+///     <structure-file> bookmarks
+///
+/// The index is the structure file's path with ".offsets" appended. Items and tables are numbered from 0 in document
+/// order, tables nested in others included, and a bookmark's slice is its body items from the one containing its
+/// start through the one containing its end, as with --bookmark. The reader memory-maps the index and only the
+/// requested slice of the output, so reading a slice takes time proportional to the slice rather than the output.
+///
+/// Offsets are counted as the UTF-8 bytes of the chars written, so the output needn't be flushed to know them. The
+/// format, with big-endian numbers, is
+///
+///     header      "DXO" version, body item count, table count, bookmark count (ints), output size (long)
+///     body items  start and end offsets (longs), in document order
+///     tables      start and end offsets (longs), in document order
+///     bookmarks   name offset, name length (ints), start and end offsets (longs); sorted by name bytes
+///     names       bookmark name UTF-8 bytes
+///
+/// The output size is checked when reading, so an index left from an earlier output isn't used with a new one.
+final class StructureOffsetIndex implements AutoCloseable
+{
+  private static final byte[] MAGIC = { 'D', 'X', 'O', 1 };
+  private static final int HEADER_SIZE = MAGIC.length + 3 * 4 + 8;
+  private static final int RANGE_SIZE = 2 * 8;
+  private static final int BOOKMARK_ENTRY_SIZE = 2 * 4 + RANGE_SIZE;
+
+  public static void main(String[] args) throws IOException
+  {
+    List<String> posArgs = CommandArgs.parse(args, Set.of()).positional();
+    String command = posArgs.size() >= 2 ? posArgs.get(1) : "";
+
+    if (!(posArgs.size() == 3 && Set.of("item", "table", "bookmark").contains(command)) &&
+        !(posArgs.size() == 2 && command.equals("bookmarks")))
+      throw new RuntimeException(
+        "Expected arguments: <structure-file> item <n> | table <n> | bookmark <name> | bookmarks"
+      );
+
+    Path structureFile = Path.of(posArgs.get(0));
+    try (StructureOffsetIndex index = open(structureFile);
+         FileChannel output = FileChannel.open(structureFile))
+    {
+      if (output.size() != index.outputSize)
+        throw new IOException(
+          "The offset index of " + structureFile + " is for an output of " + index.outputSize + " bytes, not " +
+          output.size() + "; write the structure again with --offset-index."
+        );
+
+      WritableByteChannel out = Channels.newChannel(System.out);
+      switch (command)
+      {
+        case "item" -> writeSlice(output, index.itemRange(Integer.parseInt(posArgs.get(2))), out);
+        case "table" -> writeSlice(output, index.tableRange(Integer.parseInt(posArgs.get(2))), out);
+        case "bookmark" -> writeSlice(output, index.bookmarkRange(posArgs.get(2)), out);
+        default ->
+        {
+          for (int b = 0; b < index.bookmarkCount; ++b)
+            System.out.println(index.bookmarkName(b));
+        }
+      }
+      System.out.flush();
+    }
+  }
+
+  static Path indexFile(Path structureFile)
+  {
+    return Path.of(structureFile + ".offsets");
+  }
+
+  /// Copy the output's bytes in the range, given as start and end offsets, to the channel.
+  private static void writeSlice(FileChannel output, long[] range, WritableByteChannel out) throws IOException
+  {
+    ByteBuffer slice = output.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+    while (slice.hasRemaining())
+      out.write(slice);
+  }
+
+  private final FileChannel channel;
+  private final ByteBuffer buf;
+  private final int itemCount;
+  private final int tableCount;
+  private final int bookmarkCount;
+  private final long outputSize;
+
+  private StructureOffsetIndex(FileChannel channel, ByteBuffer buf)
+  {
+    this.channel = channel;
+    this.buf = buf;
+    this.itemCount = buf.getInt(MAGIC.length);
+    this.tableCount = buf.getInt(MAGIC.length + 4);
+    this.bookmarkCount = buf.getInt(MAGIC.length + 8);
+    this.outputSize = buf.getLong(MAGIC.length + 12);
+  }
+
+  /// Open the offset index of the structure file, memory-mapped.
+  static StructureOffsetIndex open(Path structureFile) throws IOException
+  {
+    Path indexFile = indexFile(structureFile);
+    FileChannel channel = FileChannel.open(indexFile);
+    try
+    {
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      byte[] magic = new byte[MAGIC.length];
+      if (buf.limit() >= HEADER_SIZE)
+        buf.get(0, magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new IOException("Not a structure offset index file of this version: " + indexFile);
+      return new StructureOffsetIndex(channel, buf);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  long[] itemRange(int item)
+  {
+    if (item < 0 || item >= itemCount)
+      throw new RuntimeException("No body item " + item + ", the output has " + itemCount + ".");
+    return range(HEADER_SIZE + item * RANGE_SIZE);
+  }
+
+  long[] tableRange(int table)
+  {
+    if (table < 0 || table >= tableCount)
+      throw new RuntimeException("No table " + table + ", the output has " + tableCount + ".");
+    return range(HEADER_SIZE + (itemCount + table) * RANGE_SIZE);
+  }
+
+  /// The range of the bookmark's body items, found by binary search of the sorted bookmark table.
+  long[] bookmarkRange(String name)
+  {
+    byte[] key = name.getBytes(UTF_8);
+    int lo = 0, hi = bookmarkCount;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      int cmp = Arrays.compareUnsigned(bookmarkNameBytes(mid), key);
+      if (cmp == 0)
+        return range(bookmarkEntry(mid) + 8);
+      if (cmp < 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    throw new RuntimeException("Bookmark '" + name + "' not found.");
+  }
+
+  String bookmarkName(int b)
+  {
+    return new String(bookmarkNameBytes(b), UTF_8);
+  }
+
+  private byte[] bookmarkNameBytes(int b)
+  {
+    int entry = bookmarkEntry(b);
+    byte[] bytes = new byte[buf.getInt(entry + 4)];
+    buf.get(buf.getInt(entry), bytes);
+    return bytes;
+  }
+
+  private int bookmarkEntry(int b)
+  {
+    return HEADER_SIZE + (itemCount + tableCount) * RANGE_SIZE + b * BOOKMARK_ENTRY_SIZE;
+  }
+
+  private long[] range(int offset)
+  {
+    return new long[] { buf.getLong(offset), buf.getLong(offset + 8) };
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+  /// Writes the text structure of the nodes visited to a writer, as StructureTextWriter does, recording the offsets
+  /// of the body items, tables and bookmarks in it for write().
+  static final class Builder implements StructureVisitor
+  {
+    private final CountingWriter w;
+    private final StructureTextWriter textWriter;
+
+    private long[] itemRanges = new long[2 * 64];
+    private int itemCount;
+    private long[] tableRanges = new long[2 * 16];
+    private int tableCount;
+    private final Deque<Integer> openTables = new ArrayDeque<>();
+
+    // Bookmarks by name with their start and end body items, the first of each name only, and those not yet ended
+    // by id.
+    private final Map<String, int[]> bookmarkItems = new LinkedHashMap<>();
+    private final Map<BigInteger, int[]> openBookmarkItems = new HashMap<>();
+
+    Builder(Writer w)
+    {
+      this.w = new CountingWriter(w);
+      this.textWriter = new StructureTextWriter(this.w);
+    }
+
+    @Override
+    public void startNode(Object node, int depth) throws IOException
+    {
+      if (depth == 0)
+      {
+        if (2 * itemCount == itemRanges.length)
+          itemRanges = Arrays.copyOf(itemRanges, 2 * itemRanges.length);
+        itemRanges[2 * itemCount++] = w.bytes;
+      }
+
+      switch (node)
+      {
+        case Tbl t ->
+        {
+          if (2 * tableCount == tableRanges.length)
+            tableRanges = Arrays.copyOf(tableRanges, 2 * tableRanges.length);
+          openTables.push(tableCount);
+          // The table's line starts after the blank line preceding a sibling.
+          textWriter.startLine(depth);
+          tableRanges[2 * tableCount++] = w.bytes;
+        }
+        case CTBookmark b ->
+        {
+          if (b.getName() instanceof String name && b.getId() instanceof BigInteger id &&
+              !bookmarkItems.containsKey(name))
+          {
+            int[] items = { itemCount - 1, itemCount - 1 };
+            bookmarkItems.put(name, items);
+            openBookmarkItems.put(id, items);
+          }
+        }
+        case CTMarkupRange r when r.getId() instanceof BigInteger id && openBookmarkItems.remove(id) instanceof int[] items ->
+          items[1] = itemCount - 1;
+        default -> {}
+      }
+      textWriter.startNode(node, depth);
+    }
+
+    @Override
+    public void endNode(Object node, int depth) throws IOException
+    {
+      if (node instanceof Tbl)
+        tableRanges[2 * openTables.pop() + 1] = w.bytes;
+      textWriter.endNode(node, depth);
+      if (depth == 0)
+        itemRanges[2 * (itemCount - 1) + 1] = w.bytes;
+    }
+
+    /// Write the index to a temporary file and move it over the index file.
+    void write(Path indexFile) throws IOException
+    {
+      List<byte[]> names = new ArrayList<>();
+      List<int[]> items = new ArrayList<>();
+      bookmarkItems.entrySet().stream()
+        .map(e -> Map.entry(e.getKey().getBytes(UTF_8), e.getValue()))
+        .sorted((e1, e2) -> Arrays.compareUnsigned(e1.getKey(), e2.getKey()))
+        .forEach(e -> { names.add(e.getKey()); items.add(e.getValue()); });
+
+      long namesOffset = HEADER_SIZE + (long)(itemCount + tableCount) * RANGE_SIZE +
+                         (long)names.size() * BOOKMARK_ENTRY_SIZE;
+      long size = namesOffset + names.stream().mapToLong(n -> n.length).sum();
+      if (size > Integer.MAX_VALUE)
+        throw new RuntimeException("Offset index would exceed the 2 GB index file size limit.");
+
+      Path tempFile = Files.createTempFile(nonNull(indexFile.toAbsolutePath().getParent()), "structure-offsets", ".tmp");
+      try
+      {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+        {
+          out.write(MAGIC);
+          out.writeInt(itemCount);
+          out.writeInt(tableCount);
+          out.writeInt(names.size());
+          out.writeLong(w.bytes);
+
+          for (int i = 0; i < 2 * itemCount; ++i)
+            out.writeLong(itemRanges[i]);
+          for (int i = 0; i < 2 * tableCount; ++i)
+            out.writeLong(tableRanges[i]);
+
+          int nameOffset = (int)namesOffset;
+          for (int b = 0; b < names.size(); ++b)
+          {
+            out.writeInt(nameOffset);
+            out.writeInt(names.get(b).length);
+            out.writeLong(itemRanges[2 * items.get(b)[0]]);
+            out.writeLong(itemRanges[2 * items.get(b)[1] + 1]);
+            nameOffset += names.get(b).length;
+          }
+
+          for (byte[] name : names)
+            out.write(name);
+        }
+
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally { Files.deleteIfExists(tempFile); }
+    }
+  }
+
+  /// Counts the UTF-8 bytes of the chars written through it.
+  private static final class CountingWriter extends FilterWriter
+  {
+    long bytes;
+
+    CountingWriter(Writer w)
+    {
+      super(w);
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+      bytes += utf8Length((char)c);
+      out.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+      for (int i = off; i < off + len; ++i)
+        bytes += utf8Length(cbuf[i]);
+      out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException
+    {
+      for (int i = off; i < off + len; ++i)
+        bytes += utf8Length(s.charAt(i));
+      out.write(s, off, len);
+    }
+
+    /// The char's UTF-8 length, a surrogate pair's 4 bytes counted at its high surrogate.
+    private static int utf8Length(char c)
+    {
+      return c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : Character.isLowSurrogate(c) ? 0 : 3;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package bi.docxutils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import bi.util.CommandArgs;
+
+/// Which parts of a body structure to traverse, so that both traversals can prune everything else instead of
+/// visiting and then discarding it:
+///
+///     --body-items=n | from-to | from-   top level body items by 0-based index, inclusive
+///     --bookmark=name                    the top level body items from the bookmark's start through its end
+///     --type=Type[,Type...]              only subtrees rooted at nodes of these types, named as in the output
+///     --max-depth=n                      only the first n levels of the selected subtrees
+///
+/// Body item ranges from both options are intersected. With --type, the roots of the selected subtrees are at depth 0
+/// as top level body items otherwise are, and nodes of the types nested in selected subtrees are visited as part of
+/// them rather than as further roots.
+final class StructureSelector
+{
+  static final StructureSelector ALL =
+    new StructureSelector(new BodyItemRange(0, Integer.MAX_VALUE), null, null, Integer.MAX_VALUE);
+
+  /// The depth passed for nodes outside of any selected subtree, while searching for nodes of the selected types.
+  static final int SEARCHING = -1;
+
+  record BodyItemRange(int first, int last)
+  {
+    BodyItemRange intersect(BodyItemRange other)
+    {
+      return new BodyItemRange(Math.max(first, other.first), Math.min(last, other.last));
+    }
+  }
+
+  final BodyItemRange bodyItems;
+  final @Nullable String bookmark;
+  private final @Nullable Set<String> typeNames;
+  final int maxDepth;
+  private final Map<Class<?>, Boolean> mayContainSelectedByClass = new ConcurrentHashMap<>();
+
+  StructureSelector(BodyItemRange bodyItems, @Nullable String bookmark, @Nullable Set<String> typeNames, int maxDepth)
+  {
+    this.bodyItems = bodyItems;
+    this.bookmark = bookmark;
+    this.typeNames = typeNames;
+    this.maxDepth = maxDepth;
+  }
+
+  static final Set<String> OPTION_NAMES = Set.of("body-items", "bookmark", "type", "max-depth");
+
+  /// The selector specified by the options in OPTION_NAMES, ALL if none are given.
+  static StructureSelector fromOptions(CommandArgs args)
+  {
+    BodyItemRange bodyItems = ALL.bodyItems;
+    if (args.value("body-items") instanceof String range)
+    {
+      int dashIx = range.indexOf('-');
+      bodyItems = dashIx == -1
+        ? new BodyItemRange(Integer.parseInt(range), Integer.parseInt(range))
+        : new BodyItemRange(Integer.parseInt(range.substring(0, dashIx)),
+                            dashIx == range.length() - 1 ? Integer.MAX_VALUE : Integer.parseInt(range.substring(dashIx + 1)));
+    }
+
+    @Nullable Set<String> typeNames = args.value("type") instanceof String types ? Set.of(types.split(",")) : null;
+
+    int maxDepth = args.value("max-depth") instanceof String n ? Integer.parseInt(n) : Integer.MAX_VALUE;
+    if (maxDepth < 1)
+      throw new RuntimeException("The --max-depth option must be at least 1.");
+
+    return new StructureSelector(bodyItems, args.value("bookmark"), typeNames, maxDepth);
+  }
+
+  boolean selectsAll()
+  {
+    return bodyItems.equals(ALL.bodyItems) && bookmark == null && typeNames == null && maxDepth == Integer.MAX_VALUE;
+  }
+
+  /// The depth to start top level body items at, SEARCHING if they're only to be searched for nodes of the selected
+  /// types.
+  int bodyItemDepth()
+  {
+    return typeNames == null ? 0 : SEARCHING;
+  }
+
+  boolean isSelectedType(Class<?> c)
+  {
+    return typeNames == null || typeNames.contains(c.getSimpleName());
+  }
+
+  /// Whether nodes of the class can have descendants of the selected types, by the content model, so searching needs
+  /// to descend into them. Nodes with nested content outside of the content model are assumed to be able to.
+  boolean mayContainSelected(Class<?> c)
+  {
+    @Nullable Boolean res = mayContainSelectedByClass.get(c);
+    if (res == null)
+    {
+      res = searchContentModel(c);
+      mayContainSelectedByClass.put(c, res);
+    }
+    return res;
+  }
+
+  private boolean searchContentModel(Class<?> c)
+  {
+    Set<Class<?>> seen = new HashSet<>();
+    Deque<Class<?>> pending = new ArrayDeque<>();
+    pending.add(c);
+
+    while (!pending.isEmpty())
+    {
+      Class<?> k = pending.pop();
+      @Nullable Map<QName, Class<?>> contentClasses = JaxbContentModel.contentElementClasses(k);
+      if (contentClasses == null)
+      {
+        if (DocxMainPartBodyStructurePrinter.hasNestedContent(k))
+          return true;
+        continue;
+      }
+
+      for (Class<?> child : contentClasses.values())
+      {
+        if (isSelectedType(child))
+          return true;
+        if (seen.add(child))
+          pending.push(child);
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,77 @@
+package bi.docxutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.wml.P;
+
+/// Writes the indented text structure format directly to the output as nodes are visited, with a blank line between
+/// sibling nodes. Nothing is buffered beyond the current node's description line. With effective styles, paragraphs
+/// and runs are described by their effective properties rather than their direct ones.
+final class StructureTextWriter implements StructureVisitor
+{
+  private final Writer w;
+  private final @Nullable EffectiveStyles styles;
+  private final Deque<P> openParagraphs = new ArrayDeque<>(); // innermost first, tracked for effective styles only
+  private final List<String> indents = new ArrayList<>(List.of(""));
+  private int lastEndedDepth = -1;
+
+  StructureTextWriter(Writer w)
+  {
+    this(w, null);
+  }
+
+  StructureTextWriter(Writer w, @Nullable EffectiveStyles styles)
+  {
+    this.w = w;
+    this.styles = styles;
+  }
+
+  /// Write the blank line separating a node at the depth from its preceding sibling if there is one, so that what is
+  /// written next is the node's line. startNode does this itself, but callers tracking where lines start in the
+  /// output can call it first.
+  void startLine(int depth) throws IOException
+  {
+    if (depth > 0 && lastEndedDepth == depth) // preceded by a sibling
+      w.write('\n');
+    lastEndedDepth = -1;
+  }
+
+  @Override
+  public void startNode(Object node, int depth) throws IOException
+  {
+    startLine(depth);
+    w.write(indent(depth));
+    if (styles == null)
+      w.write(DocxMainPartBodyStructurePrinter.nodeDescr(node));
+    else
+    {
+      w.write(DocxMainPartBodyStructurePrinter.effectiveNodeDescr(node, styles, openParagraphs.peek()));
+      if (node instanceof P p)
+        openParagraphs.push(p);
+    }
+    w.write('\n');
+  }
+
+  @Override
+  public void endNode(Object node, int depth) throws IOException
+  {
+    if (styles != null && node instanceof P)
+      openParagraphs.pop();
+    lastEndedDepth = depth;
+    if (depth == 0)
+      w.write('\n');
+  }
+
+  private String indent(int depth)
+  {
+    while (indents.size() <= depth)
+      indents.add(indents.get(indents.size() - 1) + "  ");
+    return indents.get(depth);
+  }
+}
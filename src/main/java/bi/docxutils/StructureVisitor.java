@@ -0,0 +1,13 @@
+package bi.docxutils;
+
+import java.io.IOException;
+
+/// Receives the nodes of a body structure traversal in document order, from either the JAXB tree or the streaming
+/// reader. Nodes are unwrapped JAXB objects, which in streaming traversal hold only their own properties and not
+/// their nested content. Top level body items are at depth 0.
+interface StructureVisitor
+{
+  void startNode(Object node, int depth) throws IOException;
+
+  void endNode(Object node, int depth) throws IOException;
+}
@@ -0,0 +1,230 @@
+package bi.docxutils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import bi.util.CommandArgs;
+
+import static bi.util.Nullables.nonNull;
+
+/// Watches a document and writes its text structure again whenever it's saved, for iterating on a template in Word
+/// with the structure open alongside, without a JVM start and package load per save.
+///
+///     [--debounce-ms=n] [--stats] <docx-input-file> <output-file>
+///
+/// A save shows up as several file system events, as Word writes a temporary file and renames it over the document,
+/// so rendering waits until the document has had no events for the debounce interval (300 ms by default). Each
+/// rendering hashes the top level body items' XML in a streaming pass, and only items whose hashes weren't in the
+/// previous rendering are traversed again, with the streaming traversal skipping the rest. The text of unchanged
+/// items is spliced in from the previous rendering, which is exact since the text format renders top level items
+/// independently of each other. The output file is replaced atomically, so an editor showing it never sees a
+/// partial rendering. A document that can't be read, say while it's still being written, is reported and rendered
+/// on its next change.
+final class StructureWatcher
+{
+  private static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("debounce-ms", "stats"));
+    List<String> fileArgs = cmdArgs.positional();
+
+    if (fileArgs.size() != 2)
+      throw new RuntimeException("Expected 2 arguments: [--debounce-ms=n] [--stats] <docx-input-file> <output-file>");
+
+    long debounceMillis =
+      cmdArgs.value("debounce-ms") instanceof String n ? Long.parseLong(n) : DEFAULT_DEBOUNCE_MILLIS;
+    if (debounceMillis < 0)
+      throw new RuntimeException("The --debounce-ms option must not be negative.");
+
+    Path docxFile = Path.of(fileArgs.get(0)).toAbsolutePath();
+    Path outputFile = Path.of(fileArgs.get(1)).toAbsolutePath();
+
+    new StructureWatcher(docxFile, outputFile, cmdArgs.has("stats")).watch(debounceMillis);
+  }
+
+  private final Path docxFile;
+  private final Path docxFileName;
+  private final Path outputFile;
+  private final boolean summarizeStats;
+
+  // The previous rendering's text of each top level body item, by the hash of the item's XML.
+  private Map<Long, String> renderedItems = new HashMap<>();
+  private @Nullable BasicFileAttributes renderedAttributes;
+
+  private StructureWatcher(Path docxFile, Path outputFile, boolean summarizeStats)
+  {
+    this.docxFile = docxFile;
+    this.docxFileName = nonNull(docxFile.getFileName());
+    this.outputFile = outputFile;
+    this.summarizeStats = summarizeStats;
+  }
+
+  private void watch(long debounceMillis) throws IOException, InterruptedException
+  {
+    long debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+
+    try (WatchService watchService = docxFile.getFileSystem().newWatchService())
+    {
+      // Watching the directory rather than the file, which a save replaces.
+      nonNull(docxFile.getParent()).register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+      System.err.println("Watching " + docxFile + ", stop with Ctrl+C.");
+      renderIfModified();
+
+      while (true)
+      {
+        while (!isDocumentEvent(watchService.take())) {}
+
+        long quietUntil = System.nanoTime() + debounceNanos;
+        for (long remaining; (remaining = quietUntil - System.nanoTime()) > 0; )
+        {
+          if (watchService.poll(remaining, TimeUnit.NANOSECONDS) instanceof WatchKey key && isDocumentEvent(key))
+            quietUntil = System.nanoTime() + debounceNanos;
+        }
+
+        renderIfModified();
+      }
+    }
+  }
+
+  /// Whether the key's events include one for the document, or lost events that might have. The key is reset.
+  private boolean isDocumentEvent(WatchKey key)
+  {
+    boolean res = false;
+    for (WatchEvent<?> e : key.pollEvents())
+    {
+      if (e.kind() == OVERFLOW || docxFileName.equals(e.context()))
+        res = true;
+    }
+    key.reset();
+    return res;
+  }
+
+  /// Render the document unless its size and modification time are those of the last rendering, as when Word
+  /// touches its directory without changing the document.
+  private void renderIfModified()
+  {
+    try
+    {
+      BasicFileAttributes attributes = Files.readAttributes(docxFile, BasicFileAttributes.class);
+      if (renderedAttributes instanceof BasicFileAttributes prev && prev.size() == attributes.size() &&
+          prev.lastModifiedTime().equals(attributes.lastModifiedTime()))
+        return;
+
+      render();
+      renderedAttributes = attributes;
+    }
+    catch (NoSuchFileException e)
+    {
+      // Removed while being saved, the save's remaining events will come.
+    }
+    catch (IOException | RuntimeException e)
+    {
+      System.err.println("Could not render " + docxFile + ": " + e.getMessage());
+    }
+  }
+
+  private void render() throws IOException
+  {
+    long startNanos = System.nanoTime();
+    ToolStats stats = new ToolStats("watch", docxFile.toString(), summarizeStats);
+
+    long[] itemHashes;
+    BitSet changedItems = new BitSet();
+    List<String> changedItemTexts = new ArrayList<>();
+    try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+    {
+      itemHashes = StreamingStructurePrinter.bodyItemHashes(docxFile.toFile(), stats);
+      for (int i = 0; i < itemHashes.length; ++i)
+      {
+        if (!renderedItems.containsKey(itemHashes[i]))
+          changedItems.set(i);
+      }
+
+      if (!changedItems.isEmpty())
+      {
+        StringWriter sw = new StringWriter();
+        StructureTextWriter textWriter = new StructureTextWriter(sw);
+        StructureVisitor itemSplitter = new StructureVisitor()
+        {
+          @Override
+          public void startNode(Object node, int depth) throws IOException
+          {
+            textWriter.startNode(node, depth);
+          }
+
+          @Override
+          public void endNode(Object node, int depth) throws IOException
+          {
+            textWriter.endNode(node, depth);
+            if (depth == 0)
+            {
+              changedItemTexts.add(sw.toString());
+              sw.getBuffer().setLength(0);
+            }
+          }
+        };
+        StreamingStructurePrinter.visitBodyItems(
+          docxFile.toFile(), changedItems, stats.countingNodes(itemSplitter), stats
+        );
+      }
+    }
+
+    if (changedItemTexts.size() != changedItems.cardinality())
+      throw new IOException(
+        "Rendered " + changedItemTexts.size() + " of " + changedItems.cardinality() + " changed body items."
+      );
+
+    Map<Long, String> items = new HashMap<>();
+    Path tempFile = Files.createTempFile(nonNull(outputFile.getParent()), "structure", ".tmp");
+    try
+    {
+      try (OutputStream os = stats.output(Files.newOutputStream(tempFile));
+           BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, UTF_8)))
+      {
+        for (int i = 0, changed = 0; i < itemHashes.length; ++i)
+        {
+          String text = changedItems.get(i) ? changedItemTexts.get(changed++) : nonNull(renderedItems.get(itemHashes[i]));
+          items.put(itemHashes[i], text);
+          bw.write(text);
+        }
+      }
+      Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+      Files.deleteIfExists(tempFile);
+    }
+    renderedItems = items;
+
+    System.err.printf(
+      "Rendered %d of %d body items in %.1f ms.%n",
+      changedItems.cardinality(), itemHashes.length, (System.nanoTime() - startNanos) / 1e6
+    );
+    stats.finish();
+  }
+}
@@ -0,0 +1,81 @@
+package bi.docxutils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.CTMarkupRange;
+import org.docx4j.wml.ProofErr;
+
+import static bi.docxutils.Hashes.finish;
+import static bi.docxutils.Hashes.hashString;
+import static bi.docxutils.Hashes.mix;
+
+/// Computes a 64-bit fingerprint of every subtree visited, bottom-up in the same pass, and passes each to a sink as
+/// the subtree ends, so children come before their parents. A subtree's fingerprint is a Merkle-style hash over its
+/// root's description by value, as by nodeValueDescr, text values included, and its children's fingerprints in order,
+/// so subtrees with equal fingerprints have the same structure and content, across documents too, up to hash
+/// collisions.
+///
+/// Bookmarks, bookmark and other range ends and proofing marks are left out of their parents' fingerprints and get
+/// none of their own: their ids and positions differ between copies of the same content, as in a boilerplate section
+/// pasted into many reports, and they carry no content of their own.
+final class SubtreeFingerprinter implements StructureVisitor
+{
+  interface Sink
+  {
+    /// The subtree of the node at the depth, ended, with its fingerprint and number of nodes, root included.
+    void subtree(Object node, int depth, long fingerprint, int nodeCount) throws IOException;
+  }
+
+  private static final class OpenSubtree
+  {
+    long hash;
+    int childCount;
+    int nodeCount = 1;
+
+    OpenSubtree(long hash)
+    {
+      this.hash = hash;
+    }
+  }
+
+  private final Sink sink;
+  private final Deque<OpenSubtree> openSubtrees = new ArrayDeque<>();
+
+  SubtreeFingerprinter(Sink sink)
+  {
+    this.sink = sink;
+  }
+
+  @Override
+  public void startNode(Object node, int depth)
+  {
+    if (!isMarker(node))
+      openSubtrees.push(new OpenSubtree(hashString(DocxMainPartBodyStructurePrinter.nodeValueDescr(node))));
+  }
+
+  @Override
+  public void endNode(Object node, int depth) throws IOException
+  {
+    if (isMarker(node))
+      return;
+
+    OpenSubtree subtree = openSubtrees.pop();
+    long fingerprint = finish(mix(subtree.hash, subtree.childCount));
+
+    if (openSubtrees.peek() instanceof OpenSubtree parent)
+    {
+      parent.hash = mix(parent.hash, fingerprint);
+      ++parent.childCount;
+      parent.nodeCount += subtree.nodeCount;
+    }
+    sink.subtree(node, depth, fingerprint, subtree.nodeCount);
+  }
+
+  private static boolean isMarker(Object node)
+  {
+    return node instanceof CTBookmark || node instanceof CTMarkupRange || node instanceof ProofErr;
+  }
+}
@@ -0,0 +1,378 @@
+package bi.docxutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import static javax.xml.stream.XMLStreamConstants.END_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.docx4j.openpackaging.parts.relationships.Namespaces;
+import org.docx4j.wml.Br;
+import org.docx4j.wml.FldChar;
+import org.docx4j.wml.P;
+import org.docx4j.wml.PPr;
+import org.docx4j.wml.PPrBase.OutlineLvl;
+import org.docx4j.wml.PPrBase.PStyle;
+import org.docx4j.wml.R;
+import org.docx4j.wml.STFldCharType;
+import org.docx4j.wml.Tbl;
+import org.docx4j.wml.Tc;
+import org.docx4j.wml.Text;
+import org.docx4j.wml.Tr;
+
+/// Writes the text of the nodes visited, as plain text or as Markdown, for search indexing rather than structure
+/// inspection. Text values are joined across runs, with tabs, breaks and non-breaking hyphens as characters, and
+/// field instructions left out so only field results remain. Breaks in table cells and Markdown headings are spaces.
+///
+/// In plain text each paragraph is a line, and each table row is a line of its cells separated by tabs. In Markdown,
+/// paragraphs are separated by blank lines and empty ones are left out, paragraphs with a direct outline level or a
+/// Heading1 to Heading9 style id are headings, and tables are pipe tables with the first row as header. The styles
+/// part isn't read, so outline levels only set by styles don't make headings. In both, the paragraphs of a cell are
+/// joined by spaces, as are those of tables nested in it.
+///
+/// Paragraphs are written as they end and table rows as they end, holding no more than a row of the document at a
+/// time. extract() reads the main part's XML events directly without unmarshalling anything, which is several times
+/// faster than even the streaming traversal, as that still unmarshals each paragraph's and run's properties, and is
+/// what whole documents are written with. As a visitor it works with either traversal, for selections.
+final class TextExtractor implements StructureVisitor
+{
+  private static final Pattern HEADING_STYLE_ID = Pattern.compile("(?i)heading[1-9]");
+
+  private static final String MARKUP_COMPATIBILITY_NS = "http://schemas.openxmlformats.org/markup-compatibility/2006";
+
+  /// Elements of the main part skipped with their content by extract(): properties, content the traversal doesn't
+  /// descend into (drawings, VML, embedded objects), deleted and moved-away text, and field instructions.
+  private static final Set<String> SKIPPED_ELEMENTS = Set.of(
+    "rPr", "pPrChange", "sectPr", "tblPr", "tblPrEx", "tblGrid", "trPr", "tcPr",
+    "drawing", "pict", "object", "del", "moveFrom", "instrText", "delText", "delInstrText"
+  );
+
+  private final Writer w;
+  private final boolean markdown;
+  private final StringBuilder paragraph = new StringBuilder();
+  private int headingLevel; // of the current paragraph, 0 if it isn't a heading
+  private int tableDepth;
+  private final List<StringBuilder> rowCells = new ArrayList<>(); // of the current row of the outermost table
+  private int rowsWritten; // of the outermost table
+  // Whether each open field is still in its instruction part, innermost first, and how many are.
+  private final Deque<Boolean> openFields = new ArrayDeque<>();
+  private int fieldsInInstruction;
+
+  TextExtractor(Writer w, boolean markdown)
+  {
+    this.w = w;
+    this.markdown = markdown;
+  }
+
+  /// Write the text of the document's main body in a single pass over the main part's XML events. The text is that
+  /// written when visiting the whole body, except that the content of content controls and the inserted runs of
+  /// tracked changes, which the traversals don't descend into, are included.
+  static void extract(File docxFile, boolean markdown, Writer w, ToolStats stats) throws IOException
+  {
+    TextExtractor extractor = new TextExtractor(w, markdown);
+    try (var phase = stats.phase(ToolStats.Phase.TRAVERSE))
+    {
+      StreamingStructurePrinter.readMainPart(docxFile, stats, r ->
+      {
+        StreamingStructurePrinter.toBodyContent(r);
+        extractor.readBody(r);
+        return null;
+      });
+    }
+  }
+
+  @Override
+  public void startNode(Object node, int depth) throws IOException
+  {
+    switch (node)
+    {
+      case P p ->
+      {
+        startParagraph();
+        if (p.getPPr() instanceof PPr pr)
+          heading(headingLevel(
+            pr.getOutlineLvl() instanceof OutlineLvl l ? l.getVal() : null,
+            pr.getPStyle() instanceof PStyle s ? s.getVal() : null
+          ));
+      }
+      case Text t when fieldsInInstruction == 0 -> appendText(t.getValue());
+      case R.Tab tab -> tab();
+      case Br br -> lineBreak();
+      case R.Cr cr -> lineBreak();
+      case R.NoBreakHyphen h -> paragraph.append('-');
+      case FldChar f when f.getFldCharType() instanceof STFldCharType type -> fieldChar(type);
+      case Tbl t -> startTable();
+      case Tr tr -> startRow();
+      case Tc tc -> startCell();
+      default -> {}
+    }
+  }
+
+  @Override
+  public void endNode(Object node, int depth) throws IOException
+  {
+    switch (node)
+    {
+      case P p -> endParagraph();
+      case Tr tr -> endRow();
+      case Tbl t -> endTable();
+      default -> {}
+    }
+  }
+
+  /// Read the body's content from the reader positioned within the body element, through the body's end. Elements
+  /// are told apart by local name in the WordprocessingML namespace; field instructions are instrText elements here,
+  /// so field chars needn't be tracked.
+  private void readBody(XMLStreamReader r) throws XMLStreamException, IOException
+  {
+    String ns = Namespaces.NS_WORD12;
+    List<String> openElements = new ArrayList<>(); // local names within the body, "" for other namespaces
+    @Nullable BigInteger outlineLvl = null;
+    @Nullable String styleId = null;
+
+    for (int event = r.getEventType(); event != END_DOCUMENT; )
+    {
+      if (event == START_ELEMENT)
+      {
+        String name = ns.equals(r.getNamespaceURI()) ? r.getLocalName() : "";
+        String parent = openElements.isEmpty() ? "" : openElements.get(openElements.size() - 1);
+
+        if (SKIPPED_ELEMENTS.contains(name) ||
+            (r.getLocalName().equals("Fallback") && MARKUP_COMPATIBILITY_NS.equals(r.getNamespaceURI())))
+        {
+          StreamingStructurePrinter.skipElement(r);
+          event = r.getEventType();
+          continue;
+        }
+
+        switch (name)
+        {
+          case "t" ->
+          {
+            appendText(r.getElementText());
+            event = r.next();
+            continue;
+          }
+          case "p" ->
+          {
+            startParagraph();
+            outlineLvl = null;
+            styleId = null;
+          }
+          case "outlineLvl" ->
+          {
+            if (parent.equals("pPr") && DocxZip.attribute(r, ns, "val") instanceof String val)
+              outlineLvl = new BigInteger(val);
+          }
+          case "pStyle" ->
+          {
+            if (parent.equals("pPr"))
+              styleId = DocxZip.attribute(r, ns, "val");
+          }
+          case "tab" ->
+          {
+            if (parent.equals("r"))
+              tab();
+          }
+          case "br", "cr" ->
+          {
+            if (parent.equals("r"))
+              lineBreak();
+          }
+          case "noBreakHyphen" ->
+          {
+            if (parent.equals("r"))
+              paragraph.append('-');
+          }
+          case "tbl" -> startTable();
+          case "tr" -> startRow();
+          case "tc" -> startCell();
+          default -> {}
+        }
+        openElements.add(name);
+      }
+      else if (event == END_ELEMENT)
+      {
+        if (openElements.isEmpty())
+          return; // the body's end
+        String name = openElements.remove(openElements.size() - 1);
+        switch (name)
+        {
+          case "pPr" ->
+          {
+            if (!openElements.isEmpty() && openElements.get(openElements.size() - 1).equals("p"))
+              heading(headingLevel(outlineLvl, styleId));
+          }
+          case "p" -> endParagraph();
+          case "tr" -> endRow();
+          case "tbl" -> endTable();
+          default -> {}
+        }
+      }
+      event = r.next();
+    }
+  }
+
+  private void startParagraph()
+  {
+    paragraph.setLength(0);
+    headingLevel = 0;
+  }
+
+  /// Make the current paragraph a heading of the level, if not 0 and the output is Markdown outside of tables.
+  private void heading(int level)
+  {
+    if (markdown && tableDepth == 0)
+      headingLevel = level;
+  }
+
+  private void appendText(String text)
+  {
+    if (!markdown)
+    {
+      paragraph.append(text);
+      return;
+    }
+
+    for (int i = 0; i < text.length(); ++i)
+    {
+      char c = text.charAt(i);
+      if ("\\`*_[]<>|".indexOf(c) != -1 || (paragraph.isEmpty() && "#+->".indexOf(c) != -1))
+        paragraph.append('\\');
+      paragraph.append(c);
+    }
+  }
+
+  private void tab()
+  {
+    paragraph.append(tableDepth > 0 ? ' ' : '\t');
+  }
+
+  /// Break the line, unless in a table cell or a heading, which must stay on one line.
+  private void lineBreak()
+  {
+    paragraph.append(tableDepth > 0 || headingLevel > 0 ? ' ' : '\n');
+  }
+
+  private void fieldChar(STFldCharType type)
+  {
+    switch (type)
+    {
+      case BEGIN ->
+      {
+        openFields.push(true);
+        ++fieldsInInstruction;
+      }
+      case SEPARATE ->
+      {
+        if (openFields.peek() == Boolean.TRUE)
+        {
+          openFields.pop();
+          openFields.push(false);
+          --fieldsInInstruction;
+        }
+      }
+      case END ->
+      {
+        if (openFields.poll() == Boolean.TRUE)
+          --fieldsInInstruction;
+      }
+    }
+  }
+
+  private void endParagraph() throws IOException
+  {
+    if (tableDepth > 0 && !rowCells.isEmpty())
+    {
+      StringBuilder cell = rowCells.get(rowCells.size() - 1);
+      if (!cell.isEmpty() && !paragraph.isEmpty())
+        cell.append(' ');
+      cell.append(paragraph);
+    }
+    else if (!markdown)
+      w.append(paragraph).append('\n');
+    else if (!paragraph.isEmpty())
+    {
+      if (headingLevel > 0)
+        w.append("######", 0, Math.min(headingLevel, 6)).append(' ');
+      w.append(paragraph).append("\n\n");
+    }
+  }
+
+  private void startTable()
+  {
+    if (++tableDepth == 1)
+      rowsWritten = 0;
+  }
+
+  private void startRow()
+  {
+    if (tableDepth == 1)
+      rowCells.clear();
+  }
+
+  private void startCell()
+  {
+    if (tableDepth == 1)
+      rowCells.add(new StringBuilder());
+  }
+
+  private void endRow() throws IOException
+  {
+    if (tableDepth != 1)
+      return;
+
+    if (!markdown)
+    {
+      for (int i = 0; i < rowCells.size(); ++i)
+      {
+        if (i > 0)
+          w.write('\t');
+        w.append(rowCells.get(i));
+      }
+      w.write('\n');
+    }
+    else
+    {
+      writeMarkdownRow(rowCells);
+      if (rowsWritten == 0)
+        writeMarkdownRow(rowCells.stream().map(c -> new StringBuilder("---")).toList());
+    }
+    ++rowsWritten;
+  }
+
+  private void endTable() throws IOException
+  {
+    if (--tableDepth == 0 && markdown && rowsWritten > 0)
+      w.write('\n');
+  }
+
+  private void writeMarkdownRow(List<StringBuilder> cells) throws IOException
+  {
+    w.write('|');
+    for (StringBuilder cell : cells)
+      w.append(' ').append(cell).append(" |");
+    w.write('\n');
+  }
+
+  /// The heading level for a direct outline level or paragraph style id, 0 for neither.
+  private static int headingLevel(@Nullable BigInteger outlineLvl, @Nullable String styleId)
+  {
+    if (outlineLvl != null && outlineLvl.intValue() < 9)
+      return outlineLvl.intValue() + 1;
+    if (styleId != null && HEADING_STYLE_ID.matcher(styleId).matches())
+      return styleId.charAt(styleId.length() - 1) - '0';
+    return 0;
+  }
+}
@@ -0,0 +1,282 @@
+package bi.docxutils;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import bi.util.CommandArgs;
+
+/// Phase timings and counts for one tool run on one document, recorded as JFR events and, with --stats, summarized
+/// on stderr when the run finishes. The phases are
+///
+///     UNZIP      opening the package's zip file
+///     UNMARSHAL  reading the parts loaded up front and building JAXB objects from their XML
+///     TRAVERSE   walking the content and formatting output, including reading parts first used there and reading
+///                XML in streaming mode
+///     OUTPUT     writing the formatted output
+///
+/// where time spent writing output within another phase is counted against OUTPUT only. Without --stats, the only
+/// overhead is a few JFR events per document, which do nothing when no recording is running, and nodes are counted
+/// only if the node count event is enabled.
+final class ToolStats
+{
+  enum Phase { UNZIP, UNMARSHAL, TRAVERSE, OUTPUT }
+
+  private static final EventType NODE_COUNT_EVENT_TYPE = EventType.getEventType(NodeCountEvent.class);
+
+  private final String tool;
+  private final String document;
+  private final boolean summarize;
+  private final long[] phaseNanos = new long[Phase.values().length];
+  private final boolean[] phasesTimed = new boolean[Phase.values().length];
+  private final LongAdder bytesRead = new LongAdder(); // added to by parallel part reads
+  private long bytesWritten;
+  private final @Nullable Map<String, LongAdder> nodeCounts; // counted by parallel traversals too
+
+  ToolStats(String tool, String document, boolean summarize)
+  {
+    this.tool = tool;
+    this.document = document;
+    this.summarize = summarize;
+    this.nodeCounts = summarize || NODE_COUNT_EVENT_TYPE.isEnabled() ? new ConcurrentHashMap<>() : null;
+
+    if (summarize)
+      heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+  }
+
+  /// Stats for the tool run, summarized if --stats was given.
+  static ToolStats fromOptions(String tool, File docxFile, CommandArgs args)
+  {
+    return new ToolStats(tool, docxFile.getPath(), args.has("stats"));
+  }
+
+  /// Time a phase until the returned timer is closed.
+  PhaseTimer phase(Phase phase)
+  {
+    return new PhaseTimer(phase);
+  }
+
+  final class PhaseTimer implements AutoCloseable
+  {
+    private final PhaseEvent event = new PhaseEvent(); // before taking the start time, which it may load classes for
+    private final Phase phase;
+    private final long startNanos = System.nanoTime();
+    private final long startOutputNanos = phaseNanos[Phase.OUTPUT.ordinal()];
+
+    private PhaseTimer(Phase phase)
+    {
+      this.phase = phase;
+      event.begin();
+    }
+
+    @Override
+    public void close()
+    {
+      long outputNanos = phaseNanos[Phase.OUTPUT.ordinal()] - startOutputNanos;
+      phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos - outputNanos;
+      phasesTimed[phase.ordinal()] = true;
+
+      event.end();
+      if (event.shouldCommit())
+      {
+        event.tool = tool;
+        event.document = document;
+        event.phase = phase.name();
+        event.outputTime = outputNanos;
+        event.commit();
+      }
+    }
+  }
+
+  void addBytesRead(long bytes)
+  {
+    bytesRead.add(bytes);
+  }
+
+  /// The stream with writes to it timed as the OUTPUT phase and counted as bytes written.
+  OutputStream output(OutputStream os)
+  {
+    return new FilterOutputStream(os)
+    {
+      @Override
+      public void write(int b) throws IOException
+      {
+        long startNanos = System.nanoTime();
+        out.write(b);
+        phaseNanos[Phase.OUTPUT.ordinal()] += System.nanoTime() - startNanos;
+        ++bytesWritten;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+        long startNanos = System.nanoTime();
+        out.write(b, off, len);
+        phaseNanos[Phase.OUTPUT.ordinal()] += System.nanoTime() - startNanos;
+        bytesWritten += len;
+      }
+
+      @Override
+      public void flush() throws IOException
+      {
+        long startNanos = System.nanoTime();
+        out.flush();
+        phaseNanos[Phase.OUTPUT.ordinal()] += System.nanoTime() - startNanos;
+      }
+    };
+  }
+
+  /// The visitor, counting the nodes it visits by type if node counts are wanted.
+  StructureVisitor countingNodes(StructureVisitor visitor)
+  {
+    if (nodeCounts == null)
+      return visitor;
+
+    return new StructureVisitor()
+    {
+      @Override
+      public void startNode(Object node, int depth) throws IOException
+      {
+        countNode(node.getClass().getSimpleName());
+        visitor.startNode(node, depth);
+      }
+
+      @Override
+      public void endNode(Object node, int depth) throws IOException
+      {
+        visitor.endNode(node, depth);
+      }
+    };
+  }
+
+  /// Count a node of the given type, for tools not traversing with a visitor.
+  void countNode(String type)
+  {
+    if (nodeCounts != null)
+      nodeCounts.computeIfAbsent(type, t -> new LongAdder()).increment();
+  }
+
+  /// Record the run's document event and node count events, and write the summary if wanted.
+  void finish()
+  {
+    DocumentEvent event = new DocumentEvent();
+    if (event.shouldCommit())
+    {
+      event.tool = tool;
+      event.document = document;
+      event.unzipTime = phaseNanos[Phase.UNZIP.ordinal()];
+      event.unmarshalTime = phaseNanos[Phase.UNMARSHAL.ordinal()];
+      event.traverseTime = phaseNanos[Phase.TRAVERSE.ordinal()];
+      event.outputTime = phaseNanos[Phase.OUTPUT.ordinal()];
+      event.bytesRead = bytesRead.sum();
+      event.bytesWritten = bytesWritten;
+      event.commit();
+    }
+
+    if (nodeCounts != null && NODE_COUNT_EVENT_TYPE.isEnabled())
+    {
+      nodeCounts.forEach((type, count) ->
+      {
+        NodeCountEvent e = new NodeCountEvent();
+        e.tool = tool;
+        e.document = document;
+        e.type = type;
+        e.count = count.sum();
+        e.commit();
+      });
+    }
+
+    if (summarize)
+      writeSummary(System.err);
+  }
+
+  private void writeSummary(PrintStream out)
+  {
+    out.printf("%s stats for %s%n", tool, document);
+    for (Phase phase : Phase.values())
+    {
+      if (phasesTimed[phase.ordinal()] || phase == Phase.OUTPUT)
+        out.printf("  %-10s %,10.1f ms%n", phase.name().toLowerCase(), phaseNanos[phase.ordinal()] / 1e6);
+    }
+    out.printf("  %-10s %,10d bytes%n", "read", bytesRead.sum());
+    out.printf("  %-10s %,10d bytes%n", "written", bytesWritten);
+    long peakHeap = heapPools().mapToLong(p -> p.getPeakUsage() instanceof MemoryUsage u ? u.getUsed() : 0).sum();
+    out.printf("  %-10s %,10.1f MB%n", "peak heap", peakHeap / (1024.0 * 1024.0));
+
+    if (nodeCounts != null && !nodeCounts.isEmpty())
+    {
+      long total = nodeCounts.values().stream().mapToLong(LongAdder::sum).sum();
+      out.printf("  %-10s %,10d%n", "nodes", total);
+      nodeCounts.entrySet().stream()
+        .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> -e.getValue().sum())
+                  .thenComparing(Map.Entry::getKey))
+        .forEach(e -> out.printf("    %-28s %,10d%n", e.getKey(), e.getValue().sum()));
+    }
+  }
+
+  private static Stream<MemoryPoolMXBean> heapPools()
+  {
+    return ManagementFactory.getMemoryPoolMXBeans().stream().filter(p -> p.getType() == MemoryType.HEAP);
+  }
+
+  @Name("bi.docxutils.Phase")
+  @Label("Docx Tool Phase")
+  @Category("Docx Utilities")
+  @StackTrace(false)
+  static final class PhaseEvent extends Event
+  {
+    @Label("Tool") String tool = "";
+    @Label("Document") String document = "";
+    @Label("Phase") String phase = "";
+    @Label("Output Time") @Timespan(Timespan.NANOSECONDS) long outputTime;
+  }
+
+  @Name("bi.docxutils.Document")
+  @Label("Docx Tool Document")
+  @Category("Docx Utilities")
+  @StackTrace(false)
+  static final class DocumentEvent extends Event
+  {
+    @Label("Tool") String tool = "";
+    @Label("Document") String document = "";
+    @Label("Unzip Time") @Timespan(Timespan.NANOSECONDS) long unzipTime;
+    @Label("Unmarshal Time") @Timespan(Timespan.NANOSECONDS) long unmarshalTime;
+    @Label("Traverse Time") @Timespan(Timespan.NANOSECONDS) long traverseTime;
+    @Label("Output Time") @Timespan(Timespan.NANOSECONDS) long outputTime;
+    @Label("Bytes Read") @DataAmount long bytesRead;
+    @Label("Bytes Written") @DataAmount long bytesWritten;
+  }
+
+  @Name("bi.docxutils.NodeCount")
+  @Label("Docx Tool Node Count")
+  @Category("Docx Utilities")
+  @StackTrace(false)
+  static final class NodeCountEvent extends Event
+  {
+    @Label("Tool") String tool = "";
+    @Label("Document") String document = "";
+    @Label("Type") String type = "";
+    @Label("Count") long count;
+  }
+}
@@ -1,13 +1,21 @@
 package bi.docxutils;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import static java.util.Comparator.comparing;
 
 import jakarta.xml.bind.JAXBElement;
 
 import org.docx4j.XmlUtils;
 import org.docx4j.openpackaging.contenttype.ContentTypeManager;
-import org.docx4j.openpackaging.packages.Filetype;
 import org.docx4j.openpackaging.packages.OpcPackage;
 import org.docx4j.openpackaging.parts.DefaultXmlPart;
 import org.docx4j.openpackaging.parts.JaxbXmlPart;
@@ -16,42 +24,100 @@ import org.docx4j.openpackaging.parts.WordprocessingML.FontTablePart;
 import org.docx4j.openpackaging.parts.WordprocessingML.OleObjectBinaryPart;
 import org.docx4j.openpackaging.parts.WordprocessingML.VbaDataPart;
 import org.docx4j.openpackaging.parts.relationships.RelationshipsPart;
+import org.docx4j.org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.docx4j.org.apache.poi.poifs.filesystem.Entry;
 import org.docx4j.relationships.Relationship;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bi.util.CommandArgs;
+
 @SuppressWarnings("all")
 public class WordPartsPrinter {
 
     private static Logger log = LoggerFactory.getLogger(WordPartsPrinter.class);
 
+    /**
+     * Shorter ids first so that e.g. rId2 precedes rId10.
+     */
+    static final Comparator<Relationship> REL_ID_ORDER =
+            comparing((Relationship r) -> r.getId().length()).thenComparing(Relationship::getId);
+
     /**
      * @param args
      */
     public static void main(String[] args) throws Exception {
 
+        CommandArgs cmdArgs = CommandArgs.parse(args, Set.of("stats"));
+        java.io.File docxFile = new java.io.File(cmdArgs.positional(0));
+        ToolStats stats = ToolStats.fromOptions(DocxTool.PARTS.commandName, docxFile, cmdArgs);
+
         // Configuration options
         boolean printContentTypes = true;
 
         // Load the Package as an OpcPackage, since this works for docx, pptx, and xlsx
-        OpcPackage opcPackage = OpcPackage.load(new java.io.File(args[0]), Filetype.ZippedPackage);
+        OpcPackage opcPackage = DocxPackages.load(docxFile, DocxPackages.ALL_PARTS, stats);
 
-        handlePkg(opcPackage, printContentTypes);
+        try {
+            handlePkg(opcPackage, printContentTypes, stats);
+        } finally {
+            DocxPackages.close(opcPackage);
+        }
+        stats.finish();
     }
 
     public static void handlePkg(OpcPackage opcPackage, boolean printContentTypes) {
+        handlePkg(opcPackage, printContentTypes, new ToolStats(DocxTool.PARTS.commandName, String.valueOf(opcPackage.name()), false));
+    }
+
+    private static void handlePkg(OpcPackage opcPackage, boolean printContentTypes, ToolStats stats) {
 
-        if (printContentTypes) {
-            printContentTypes(opcPackage);
+        try {
+            Writer w = new OutputStreamWriter(stats.output(System.out));
+            writeParts(opcPackage, printContentTypes, w, stats);
+            w.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+    }
+
+    /**
+     * Write the content types if wanted, followed by the parts found by walking the rels tree.
+     * The walk itself is cheap and done first, in relationship id order, recording the lines to
+     * write. The expensive inspections of the parts found (unmarshalling, font embeddings, OLE
+     * objects) are then done in parallel, each distinct part once, and the lines written in walk
+     * order.
+     */
+    public static void writeParts(OpcPackage opcPackage, boolean printContentTypes, Writer w, ToolStats stats) throws IOException {
 
-        // List the parts by walking the rels tree
-        RelationshipsPart rp = opcPackage.getRelationshipsPart();
-        StringBuilder sb = new StringBuilder();
-        printInfo(rp.getPartName().getName(), null, rp, sb, "");
-        traverseRelationships(opcPackage, rp, sb, "    ");
+        try (var phase = stats.phase(ToolStats.Phase.TRAVERSE)) {
 
-        System.out.println(sb.toString());
+            if (printContentTypes) {
+                w.write(opcPackage.getContentTypeManager().toString());
+                w.write("\n");
+            }
+
+            // List the parts by walking the rels tree
+            RelationshipsPart rp = opcPackage.getRelationshipsPart();
+            Traversal traversal = new Traversal();
+            traversal.lines.add(new PartLine(partLineStart(null, null, rp), rp, "", false));
+            traversal.traverseRelationships(rp, "    ");
+            for (Part part : traversal.handled) {
+                stats.countNode(part.getClass().getSimpleName());
+            }
+
+            Map<Part, PartDetails> partDetails = new ConcurrentHashMap<>();
+            new ArrayList<Part>(traversal.handled).parallelStream().forEach(part -> partDetails.put(part, inspect(part)));
+            partDetails.put(rp, inspect(rp));
+
+            StringBuilder sb = new StringBuilder();
+            for (Line line : traversal.lines) {
+                line.appendTo(sb, partDetails);
+            }
+
+            w.write(sb.toString());
+            w.write("\n");
+        }
     }
 
     /**
@@ -63,7 +129,7 @@ public class WordPartsPrinter {
         System.out.println(ctm.toString());
     }
 
-    public static void printInfo(String parentName, Relationship r, Part p, StringBuilder sb, String indent) {
+    private static String partLineStart(String parentName, Relationship r, Part p) {
 
         String relationshipType = "";
         if (p.getSourceRelationships().size() > 0) {
@@ -71,17 +137,28 @@ public class WordPartsPrinter {
         }
 
         if (r == null) {
-            sb.append("\n" + indent + "Part " + p.getPartName() + " [" + p.getClass().getName() + "] " + relationshipType);
+            return "Part " + p.getPartName() + " [" + p.getClass().getName() + "] " + relationshipType;
         } else {
-            sb.append("\n" + indent + parentName + "'s " + r.getId() + " is " + p.getPartName() + " [" + p.getClass().getName() + "] " + relationshipType);
+            return parentName + "'s " + r.getId() + " is " + p.getPartName() + " [" + p.getClass().getName() + "] " + relationshipType;
         }
+    }
+
+    /**
+     * What is written about a part following its line start, the XML of a VBA data part, and the
+     * directory listing of an OLE object.
+     */
+    private record PartDetails(String content, String vbaXml, String oleListing) {}
+
+    private static PartDetails inspect(Part p) {
+
+        String content = "";
 
         if (p instanceof JaxbXmlPart) {
             Object o = ((JaxbXmlPart) p).getJaxbElement();
             if (o instanceof jakarta.xml.bind.JAXBElement) {
-                sb.append(" containing JaxbElement:" + XmlUtils.JAXBElementDebug((JAXBElement) o));
+                content = " containing JaxbElement:" + XmlUtils.JAXBElementDebug((JAXBElement) o);
             } else {
-                sb.append(" containing:" + o.getClass().getName());
+                content = " containing:" + o.getClass().getName();
             }
         } else if (p instanceof DefaultXmlPart) {
             try {
@@ -89,12 +166,12 @@ public class WordPartsPrinter {
                 try {
                     Object o = XmlUtils.unmarshal(doc);
                     if (o instanceof jakarta.xml.bind.JAXBElement) {
-                        sb.append(" containing JaxbElement:" + XmlUtils.JAXBElementDebug((JAXBElement) o));
+                        content = " containing JaxbElement:" + XmlUtils.JAXBElementDebug((JAXBElement) o);
                     } else {
-                        sb.append(" containing:" + o.getClass().getName());
+                        content = " containing:" + o.getClass().getName();
                     }
                 } catch (jakarta.xml.bind.UnmarshalException e) {
-                    sb.append(" containing raw root element:" + doc.getDocumentElement().getLocalName());
+                    content = " containing raw root element:" + doc.getDocumentElement().getLocalName();
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e); // was: e.printStackTrace();
@@ -102,60 +179,128 @@ public class WordPartsPrinter {
 
         }
 
+        String oleListing = null;
         if (p instanceof OleObjectBinaryPart) {
 
             try {
-                ((OleObjectBinaryPart) p).viewFile(false);
+                StringBuilder sb = new StringBuilder();
+                appendOleDirectory(sb, ((OleObjectBinaryPart) p).getFs().getRoot(), "");
+                oleListing = sb.toString();
             } catch (IOException e) {
                 throw new RuntimeException(e); // was: e.printStackTrace();
             }
         }
 
+        String vbaXml = null;
         if (p instanceof VbaDataPart) {
-            System.out.println(((VbaDataPart) p).getXML());
+            vbaXml = ((VbaDataPart) p).getXML();
         }
 
         if (p instanceof FontTablePart) {
             ((FontTablePart) p).processEmbeddings();
         }
+
+        return new PartDetails(content, vbaXml, oleListing);
+    }
+
+    /**
+     * Append the listing OleObjectBinaryPart.viewFile would print, one line per entry. It is not
+     * called since it prints the directory names to System.out whatever stream it is given, which
+     * would interleave with the other parts inspected in parallel.
+     */
+    private static void appendOleDirectory(StringBuilder sb, DirectoryNode dir, String indent) {
+
+        sb.append("\n" + indent + dir.getName() + " -");
+        String childIndent = indent + "  ";
+        boolean hasChildren = false;
+        for (Entry entry : dir) {
+            hasChildren = true;
+            if (entry instanceof DirectoryNode) {
+                appendOleDirectory(sb, (DirectoryNode) entry, childIndent);
+            } else {
+                String name = entry.getName();
+                if (!name.isEmpty() && name.charAt(0) < 10) {
+                    name = name.substring(1) + " <(0x0" + (int) name.charAt(0) + ")" + name.substring(1) + ">";
+                }
+                sb.append("\n" + childIndent + name);
+            }
+        }
+        if (!hasChildren) {
+            sb.append("\n" + childIndent + "(no children)");
+        }
+    }
+
+    private interface Line {
+        void appendTo(StringBuilder sb, Map<Part, PartDetails> partDetails);
+    }
+
+    private record PartLine(String start, Part part, String indent, boolean additionalReference) implements Line {
+        public void appendTo(StringBuilder sb, Map<Part, PartDetails> partDetails) {
+            PartDetails details = partDetails.get(part);
+            sb.append("\n" + indent + start + details.content());
+            if (details.vbaXml() != null) {
+                sb.append("\n" + indent + details.vbaXml());
+            }
+            if (details.oleListing() != null) {
+                sb.append(details.oleListing().replace("\n", "\n" + indent));
+            }
+            if (additionalReference) {
+                sb.append(" [additional reference] ");
+            }
+        }
+    }
+
+    private record TextLine(String text) implements Line {
+        public void appendTo(StringBuilder sb, Map<Part, PartDetails> partDetails) {
+            sb.append(text);
+        }
     }
 
     /**
-     * This HashMap is intended to prevent loops.
+     * The state of one walk of a package's rels tree.
      */
-    public static HashMap<Part, Part> handled = new HashMap<Part, Part>();
+    private static final class Traversal {
 
-    public static void traverseRelationships(org.docx4j.openpackaging.packages.OpcPackage wordMLPackage,
-            RelationshipsPart rp,
-            StringBuilder sb, String indent) {
+        /**
+         * The parts reached so far, in walk order, intended to prevent loops.
+         */
+        final Set<Part> handled = new LinkedHashSet<Part>();
 
-        // TODO: order by rel id
-        for (Relationship r : rp.getRelationships().getRelationship()) {
+        final List<Line> lines = new ArrayList<Line>();
 
-            log.info("\nFor Relationship Id=" + r.getId()
-                    + " Source is " + rp.getSourceP().getPartName()
-                    + ", Target is " + r.getTarget()
-                    + " type " + r.getType() + "\n");
+        void traverseRelationships(RelationshipsPart rp, String indent) {
 
-            if (r.getTargetMode() != null
-                    && r.getTargetMode().equals("External")) {
+            List<Relationship> rels = rp.getRelationships().getRelationship().stream()
+                    .sorted(REL_ID_ORDER)
+                    .toList();
 
-                sb.append("\n" + indent + "external resource " + r.getTarget()
-                        + " of type " + r.getType());
-                continue;
-            }
+            for (Relationship r : rels) {
 
-            Part part = rp.getPart(r);
+                log.info("\nFor Relationship Id=" + r.getId()
+                        + " Source is " + rp.getSourceP().getPartName()
+                        + ", Target is " + r.getTarget()
+                        + " type " + r.getType() + "\n");
 
-            printInfo(rp.getSourceP().getPartName().getName(), r, part, sb, indent);
-            if (handled.get(part) != null) {
-                sb.append(" [additional reference] ");
-                continue;
-            }
-            handled.put(part, part);
-            if (part.getRelationshipsPart(false) == null) {
-            } else {
-                traverseRelationships(wordMLPackage, part.getRelationshipsPart(false), sb, indent + "    ");
+                if (r.getTargetMode() != null
+                        && r.getTargetMode().equals("External")) {
+
+                    lines.add(new TextLine("\n" + indent + "external resource " + r.getTarget()
+                            + " of type " + r.getType()));
+                    continue;
+                }
+
+                Part part = rp.getPart(r);
+
+                String lineStart = partLineStart(rp.getSourceP().getPartName().getName(), r, part);
+                if (!handled.add(part)) {
+                    lines.add(new PartLine(lineStart, part, indent, true));
+                    continue;
+                }
+                lines.add(new PartLine(lineStart, part, indent, false));
+                if (part.getRelationshipsPart(false) == null) {
+                } else {
+                    traverseRelationships(part.getRelationshipsPart(false), indent + "    ");
+                }
             }
         }
     }
@@ -0,0 +1,71 @@
+package bi.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/// Command line arguments split into options of the form --name or --name=value, and the remaining positional
+/// arguments in their original order. A lone "--" ends the options, so later arguments are positional even if they
+/// start with "--".
+public final class CommandArgs
+{
+  private final Map<String, String> options;
+  private final List<String> positional;
+
+  private CommandArgs(Map<String, String> options, List<String> positional)
+  {
+    this.options = options;
+    this.positional = positional;
+  }
+
+  /// Parse the arguments, failing if any option is not among the allowed option names.
+  public static CommandArgs parse(String[] args, Set<String> allowedOptions)
+  {
+    Map<String, String> options = new HashMap<>();
+    List<String> positional = new ArrayList<>();
+
+    boolean optionsEnded = false;
+    for (String arg : args)
+    {
+      if (!optionsEnded && arg.equals("--"))
+        optionsEnded = true;
+      else if (!optionsEnded && arg.startsWith("--"))
+      {
+        int eqIx = arg.indexOf('=');
+        String name = eqIx == -1 ? arg.substring(2) : arg.substring(2, eqIx);
+        if (!allowedOptions.contains(name))
+          throw new RuntimeException("Unrecognized option --" + name + ", expected one of: " + allowedOptions);
+        options.put(name, eqIx == -1 ? "" : arg.substring(eqIx + 1));
+      }
+      else
+        positional.add(arg);
+    }
+
+    return new CommandArgs(options, positional);
+  }
+
+  public boolean has(String option)
+  {
+    return options.containsKey(option);
+  }
+
+  /// The option's value, which is empty if the option was given without one, or null if the option was not given.
+  public @Nullable String value(String option)
+  {
+    return options.get(option);
+  }
+
+  public List<String> positional()
+  {
+    return positional;
+  }
+
+  public String positional(int ix)
+  {
+    return positional.get(ix);
+  }
+}